@@ -1,10 +1,89 @@
 package com.roadregistry.model;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
- * Hello world!
+ * Starts the Road Registry HTTP service on the port given as the first argument (8080 by default),
+ * for person.txt and demerits.txt in the directory given as the second argument (the working directory by default).
+ * Offenses that have left the two year window are moved to the archive at start-up and then once a day.
+ * Replaced person details are kept in memory for a year, for consistent exports and asOf lookups.
+ *
+ * With a replication port as the third argument, the service is a primary that read replicas can follow.
+ * A replica is started with {@code App <port> --replica-of <host>:<replication port> [directory]} and keeps its copy
+ * in memory. If it is promoted, the copy is written to person.txt and demerits.txt in the directory (the working
+ * directory by default), which must not hold any people yet, and the new primary keeps its records there.
  */
 public class App {
-    public static void main(String[] args) {
-        System.out.println("Hello World!");
+
+    private static final Duration REPLICA_MAX_LAG = Duration.ofSeconds(1);
+    private static final Duration REPLICA_START_TIMEOUT = Duration.ofSeconds(30);
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        if (args.length > 2 && args[1].equals("--replica-of")) {
+            startReplica(port, args[2], Paths.get(args.length > 3 ? args[3] : "."));
+            return;
+        }
+        FilePersonRepository repository = FilePersonRepository.inDirectory(Paths.get(args.length > 1 ? args[1] : "."));
+
+        // archive before the server loads its indexes, which read both tiers, so a stopped run is finished first
+        DemeritArchive archive = DemeritArchive.forRepository(repository);
+        archive.archive(LocalDate.now());
+        ScheduledExecutorService tiering = Executors.newSingleThreadScheduledExecutor();
+        tiering.scheduleAtFixedRate(() -> {
+            try {
+                archive.archive(LocalDate.now());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, 1, 1, TimeUnit.DAYS);
+
+        // replicas are sent every change made through the primary, which streams their snapshots from the versions
+        VersionedPersonRepository versioned = new VersionedPersonRepository(repository, Duration.ofDays(365));
+        ReplicatedPersonRepository primary = args.length > 2 ? new ReplicatedPersonRepository(versioned, Integer.parseInt(args[2])) : null;
+        RegistryServer server = new RegistryServer(port, primary != null ? primary : versioned, archive);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            tiering.shutdownNow();
+            server.stop();
+            if (primary != null) {
+                try {
+                    primary.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }));
+        System.out.println("Road Registry listening on port " + server.getPort()
+                + (primary != null ? ", replicas connect to port " + primary.getPort() : ""));
+    }
+
+    private static void startReplica(int port, String primaryAddress, Path directory) throws IOException {
+        int colon = primaryAddress.lastIndexOf(':');
+        PersonReplica replica = PersonReplica.connect(primaryAddress.substring(0, colon),
+                Integer.parseInt(primaryAddress.substring(colon + 1)), REPLICA_MAX_LAG, FilePersonRepository.inDirectory(directory));
+        // the server loads its indexes from the copy, so it has to be complete first
+        if (!replica.awaitCaughtUp(REPLICA_START_TIMEOUT)) {
+            replica.close();
+            throw new IOException("Could not catch up with the primary at " + primaryAddress);
+        }
+        RegistryServer server = new RegistryServer(port, replica);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                replica.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        System.out.println("Road Registry replica listening on port " + server.getPort());
     }
 }
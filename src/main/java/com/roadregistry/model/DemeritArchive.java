@@ -0,0 +1,307 @@
+package com.roadregistry.model;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The DemeritArchive keeps demerits.txt down to the offenses that can still count towards a suspension.
+ * addDemeritPoints only counts offenses from the last two years, so archive moves older rows out of the hot file
+ * into gzip segments with one file per month of the offense date (demerits-2022-03.txt.gz).
+ * Every run adds a new gzip member to the end of a segment, and readers see the members as one stream.
+ * Anything that reads the hot file afterwards, such as DemeritLog lookups or OffenseTimeSeries.load,
+ * only sees the active window. The archive stays readable for audits through forEach and history.
+ *
+ * Before a run puts its segments in place it writes a run marker with the segments' old lengths and a checksum of
+ * the hot file, and removes it once the hot file has been replaced. If the process stops in between, the next run
+ * finds the marker: if the hot file is still the old one, the new gzip members are cut off again so the rows are
+ * archived only once. Until then audits may see those rows twice.
+ *
+ * Only one process may write demerits.txt while a run is going, see DemeritLog.moveRows.
+ */
+public class DemeritArchive {
+
+    // the same window addDemeritPoints counts, offenses older than this can never affect a suspension again
+    public static final int ACTIVE_DAYS = 2 * 365;
+
+    private static final DateTimeFormatter SEGMENT_MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+    private static final String SEGMENT_PREFIX = "demerits-";
+    private static final String SEGMENT_SUFFIX = ".txt.gz";
+    private static final String RUN_MARKER = "archive-run.pending";
+
+    private final Path demeritsFile;
+    private final DemeritLog log;
+    private final Path archiveDirectory;
+
+    /**
+     * @param demeritsFile     the hot file, demerits.txt
+     * @param archiveDirectory the directory the segments are kept in, created when first needed
+     */
+    public DemeritArchive(Path demeritsFile, Path archiveDirectory) {
+        this.demeritsFile = demeritsFile;
+        this.log = DemeritLog.forFile(demeritsFile);
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    /**
+     * Returns an archive for the repository's demerits file, kept in demerits-archive next to it.
+     */
+    public static DemeritArchive forRepository(FilePersonRepository repository) {
+        Path demeritsFile = repository.getDemeritsFile().toAbsolutePath();
+        return new DemeritArchive(demeritsFile, demeritsFile.resolveSibling("demerits-archive"));
+    }
+
+    public Path getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    /**
+     * Moves every offense from before the active window ending on the given day into the archive.
+     * Offenses with an invalid date are left in the hot file.
+     *
+     * @return the number of offenses archived
+     */
+    public long archive(LocalDate today) throws IOException {
+        recover();
+        long firstActiveDay = today.toEpochDay() - ACTIVE_DAYS;
+        SegmentWriter writer = new SegmentWriter();
+        long moved;
+        try {
+            moved = log.moveRows(record -> {
+                long day = OffenseTimeSeries.epochDay(record.offenseDate);
+                return day != Long.MIN_VALUE && day < firstActiveDay;
+            }, writer);
+        } finally {
+            writer.discard();
+        }
+        // the hot file has been replaced, so the new members are the only copy of the rows now
+        Files.deleteIfExists(archiveDirectory.resolve(RUN_MARKER));
+        return moved;
+    }
+
+    /**
+     * Passes every archived offense to the action, oldest month first.
+     */
+    public void forEach(Consumer<DemeritRecord> action) throws IOException {
+        for (Path segment : segments().values()) {
+            readSegment(segment, action);
+        }
+    }
+
+    /**
+     * Passes every archived offense dated between the two days, both inclusive, to the action.
+     * Only the segments for the months in that range are read.
+     */
+    public void forEach(LocalDate from, LocalDate to, Consumer<DemeritRecord> action) throws IOException {
+        YearMonth first = YearMonth.from(from);
+        YearMonth last = YearMonth.from(to);
+        for (Map.Entry<YearMonth, Path> segment : segments().entrySet()) {
+            if (segment.getKey().isBefore(first) || segment.getKey().isAfter(last)) {
+                continue;
+            }
+            readSegment(segment.getValue(), record -> {
+                long day = OffenseTimeSeries.epochDay(record.offenseDate);
+                if (day >= from.toEpochDay() && day <= to.toEpochDay()) {
+                    action.accept(record);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns every offense recorded for a person, archived ones first (oldest month first) and then the hot file.
+     */
+    public List<DemeritRecord> history(String personID) throws IOException {
+        List<DemeritRecord> history = new ArrayList<>();
+        for (Path segment : segments().values()) {
+            readSegment(segment, record -> {
+                if (record.personID.equals(personID)) {
+                    history.add(record);
+                }
+            });
+        }
+        history.addAll(log.read(personID));
+        return history;
+    }
+
+    // the segment files by month, oldest first
+    private SortedMap<YearMonth, Path> segments() throws IOException {
+        SortedMap<YearMonth, Path> segments = new TreeMap<>();
+        if (!Files.isDirectory(archiveDirectory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(archiveDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String month = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    segments.put(YearMonth.parse(month, SEGMENT_MONTH), file);
+                } catch (RuntimeException e) {
+                    // not a segment written by this class
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static void readSegment(Path segment, Consumer<DemeritRecord> action) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(segment), 64 * 1024), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                DemeritRecord record = DemeritRecord.parse(line);
+                if (record != null) {
+                    action.accept(record);
+                }
+            }
+        }
+    }
+
+    private Path segmentFile(YearMonth month) {
+        return archiveDirectory.resolve(SEGMENT_PREFIX + month.format(SEGMENT_MONTH) + SEGMENT_SUFFIX);
+    }
+
+    // finishes a run that stopped between putting its segments in place and replacing the hot file
+    private void recover() throws IOException {
+        Path marker = archiveDirectory.resolve(RUN_MARKER);
+        if (!Files.isRegularFile(marker)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(marker, StandardCharsets.UTF_8);
+        String[] hot = lines.get(0).split(" ");
+        // only a run replaces the hot file and everyone else only appends, so the old file is still a prefix unless it was replaced
+        if (startsWith(demeritsFile, Long.parseLong(hot[1]), Long.parseLong(hot[2]))) {
+            for (String line : lines.subList(1, lines.size())) {
+                String[] segment = line.split(" ");
+                Path file = archiveDirectory.resolve(segment[1]);
+                long length = Long.parseLong(segment[2]);
+                if (length < 0) {
+                    Files.deleteIfExists(file);
+                } else if (Files.exists(file) && Files.size(file) > length) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(length);
+                        channel.force(true);
+                    }
+                }
+            }
+        }
+        Files.delete(marker);
+    }
+
+    // true if the file starts with length bytes whose CRC-32 is crc
+    private static boolean startsWith(Path file, long length, long crc) throws IOException {
+        return Files.exists(file) && Files.size(file) >= length && crc(file, length) == crc;
+    }
+
+    private static long crc(Path file, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            long left = length;
+            int read;
+            while (left > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, left))) > 0) {
+                crc.update(buffer, 0, read);
+                left -= read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the archived rows of one run into a temporary copy of each month's segment with a new gzip member
+     * on the end, and moves the copies over the segments on commit.
+     */
+    private class SegmentWriter implements DemeritLog.RowMover {
+        private final Map<YearMonth, Writer> writers = new HashMap<>();
+        private final Map<YearMonth, Path> temps = new TreeMap<>();
+
+        @Override
+        public void move(DemeritRecord record) throws IOException {
+            LocalDate day = LocalDate.ofEpochDay(OffenseTimeSeries.epochDay(record.offenseDate));
+            YearMonth month = YearMonth.from(day);
+            Writer writer = writers.get(month);
+            if (writer == null) {
+                writer = open(month);
+                writers.put(month, writer);
+            }
+            writer.write(record.toLine());
+        }
+
+        private Writer open(YearMonth month) throws IOException {
+            Files.createDirectories(archiveDirectory);
+            Path segment = segmentFile(month);
+            Path temp = segment.resolveSibling(segment.getFileName() + ".part");
+            temps.put(month, temp);
+            // gzip members can be concatenated, so the old segment is copied as it is and the new rows follow it
+            if (Files.exists(segment)) {
+                Files.copy(segment, temp, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(temp);
+            }
+            OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, 64 * 1024), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void commit(Path hotFile) throws IOException {
+            for (Writer writer : writers.values()) {
+                writer.close();
+            }
+            writers.clear();
+            if (temps.isEmpty()) {
+                return;
+            }
+            StringBuilder marker = new StringBuilder();
+            long hotLength = Files.size(hotFile);
+            marker.append("hot ").append(hotLength).append(' ').append(crc(hotFile, hotLength)).append('\n');
+            for (Map.Entry<YearMonth, Path> temp : temps.entrySet()) {
+                // the hot file loses these rows next, so they must be on disk first
+                try (FileChannel channel = FileChannel.open(temp.getValue(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                Path segment = segmentFile(temp.getKey());
+                marker.append("segment ").append(segment.getFileName()).append(' ')
+                        .append(Files.exists(segment) ? Files.size(segment) : -1).append('\n');
+            }
+            writeMarker(marker.toString());
+            for (Map.Entry<YearMonth, Path> temp : temps.entrySet()) {
+                Files.move(temp.getValue(), segmentFile(temp.getKey()),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            temps.clear();
+        }
+
+        private void writeMarker(String content) throws IOException {
+            Path marker = archiveDirectory.resolve(RUN_MARKER);
+            Path temp = marker.resolveSibling(RUN_MARKER + ".part");
+            Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // removes what is left of a run that did not commit
+        void discard() throws IOException {
+            for (Writer writer : writers.values()) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // the file is deleted below
+                }
+            }
+            for (Path temp : temps.values()) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
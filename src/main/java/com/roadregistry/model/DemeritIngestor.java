@@ -0,0 +1,365 @@
+package com.roadregistry.model;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The DemeritIngestor takes offenses from many threads at once, such as bursts from roadside camera feeds,
+ * and records them on a single consumer thread. Offenses wait in a bounded ring buffer. When it is full,
+ * offer returns null and submit waits for space, so producers feel the backpressure instead of the heap.
+ * The consumer takes everything waiting (up to MAX_BATCH), runs addDemeritPoints' checks and suspension rules
+ * for each offense, records the accepted ones with one addDemerits call (one write to demerits.txt for the
+ * file repository, forced to disk), adds their points to the people's stored totals and stores any new
+ * suspensions with one updateTotals call, and only then completes their futures and tells the listeners.
+ * If the totals cannot be stored, the futures fail although the offenses are recorded.
+ * A listener that throws is reported and does not stop the consumer or change the offense's result.
+ *
+ * The Person objects used for the checks are kept, up to maxCached of them with the least recently used dropped
+ * first, so the history of a person with frequent offenses is only loaded once.
+ * Call evict after changing a person's details so they are loaded again, a load that races with evict is redone.
+ * Futures are completed on the consumer thread, so callers should not run slow work in their callbacks.
+ */
+public class DemeritIngestor implements AutoCloseable {
+
+    public static final int MAX_BATCH = 4096;
+    public static final int MAX_CACHED = 1 << 16;
+    private static final int SPINS = 100; // empty or full checks before a thread starts to park
+
+    private final PersonRepository repository;
+    private final Lock totalsLock;
+    private final Map<String, Person> people;
+    // only the consumer loads people, so evict only has to count the calls for the one ID it is loading
+    private volatile String loading;
+    private final AtomicLong evictions = new AtomicLong();
+
+    // ring buffer: slot i is free for the producer of position p when sequences[i] == p,
+    // and holds that producer's offense for the consumer when sequences[i] == p + 1
+    private final Offense[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next position producers claim
+    private volatile long head;                         // next position the consumer reads, only written by the consumer
+
+    private final Thread consumer;
+    private final AtomicInteger publishing = new AtomicInteger(); // producers between the closed check and publishing
+    private volatile boolean closed;
+    private volatile boolean consumerParked;
+
+    /**
+     * Starts the consumer thread, keeping up to MAX_CACHED people.
+     *
+     * @param capacity the number of offenses that can wait, rounded up to a power of two
+     */
+    public DemeritIngestor(PersonRepository repository, int capacity) {
+        this(repository, capacity, MAX_CACHED);
+    }
+
+    /**
+     * Starts the consumer thread.
+     *
+     * @param capacity  the number of offenses that can wait, rounded up to a power of two
+     * @param maxCached the number of people whose details and history are kept between offenses
+     */
+    public DemeritIngestor(PersonRepository repository, int capacity, int maxCached) {
+        this(repository, capacity, maxCached, new ReentrantLock());
+    }
+
+    /**
+     * Starts the consumer thread, storing the totals while holding the given lock. Callers that read a record and
+     * write it back with its totals, like updatePersonalDetails, hold the same lock so the new totals are not lost.
+     */
+    public DemeritIngestor(PersonRepository repository, int capacity, int maxCached, Lock totalsLock) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        if (maxCached < 1) {
+            throw new IllegalArgumentException("maxCached must be at least 1");
+        }
+        this.people = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Person> eldest) {
+                return size() > maxCached;
+            }
+        });
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.repository = repository;
+        this.totalsLock = totalsLock;
+        this.slots = new Offense[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.consumer = new Thread(this::consume, "demerit-ingestor");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Queues an offense if there is room.
+     *
+     * @return a future completed with "Success" or "Failed" like addDemeritPoints once the offense has been
+     * recorded or rejected, or completed exceptionally if recording failed. Null if the buffer is full.
+     * @throws IllegalStateException if the ingestor has been closed
+     */
+    public CompletableFuture<String> offer(String personID, String offenseDate, int points) {
+        Offense offense = new Offense(new DemeritRecord(personID, offenseDate, points));
+        return publish(offense) ? offense.result : null;
+    }
+
+    /**
+     * Queues an offense, waiting for room in the buffer if it is full.
+     *
+     * @throws IllegalStateException if the ingestor is closed while waiting
+     */
+    public CompletableFuture<String> submit(String personID, String offenseDate, int points) {
+        Offense offense = new Offense(new DemeritRecord(personID, offenseDate, points));
+        for (int attempt = 0; !publish(offense); attempt++) {
+            if (attempt < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+        return offense.result;
+    }
+
+    /**
+     * Returns the Person the ingestor uses for the given ID, with the history and suspension it has worked out,
+     * or null if none of their offenses have been ingested since they were last evicted or dropped from the cache.
+     */
+    public Person person(String personID) {
+        return people.get(personID);
+    }
+
+    // drops a cached Person, so the next offense loads their details and history from the repository again
+    public void evict(String personID) {
+        // counted before removing, so a load that read the old details and puts them back afterwards sees the change
+        if (personID.equals(loading)) {
+            evictions.incrementAndGet();
+        }
+        people.remove(personID);
+    }
+
+    // the number of offenses waiting to be recorded
+    public int backlog() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Stops taking offenses, records the ones already queued and stops the consumer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean publish(Offense offense) {
+        publishing.incrementAndGet();
+        try {
+            // checked after publishing is raised, so the consumer cannot finish while this offense is on its way
+            if (closed) {
+                throw new IllegalStateException("The ingestor has been closed");
+            }
+            long position = tail.get();
+            while (true) {
+                int slot = (int) position & mask;
+                long free = sequences.get(slot) - position;
+                if (free == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots[slot] = offense;
+                        sequences.set(slot, position + 1); // the volatile write publishes the slot to the consumer
+                        break;
+                    }
+                    position = tail.get();
+                } else if (free < 0) {
+                    return false; // the consumer has not freed this slot yet, the buffer is full
+                } else {
+                    position = tail.get(); // another producer took this position
+                }
+            }
+        } finally {
+            publishing.decrementAndGet();
+        }
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    // takes the next offense, or null if the next slot has not been published yet
+    private Offense poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+        Offense offense = slots[slot];
+        slots[slot] = null;
+        sequences.set(slot, head + slots.length); // free for the producer one lap later
+        head++;
+        return offense;
+    }
+
+    private void consume() {
+        List<Offense> batch = new ArrayList<>();
+        int idle = 0;
+        while (true) {
+            Offense offense;
+            while (batch.size() < MAX_BATCH && (offense = poll()) != null) {
+                batch.add(offense);
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    record(batch);
+                } catch (Throwable e) {
+                    // the consumer has to keep going, or every later future would wait forever
+                    for (Offense failed : batch) {
+                        failed.result.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+                idle = 0;
+            } else if (closed && publishing.get() == 0 && tail.get() == head) {
+                return;
+            } else if (++idle < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                consumerParked = true;
+                // a producer that missed the flag is picked up within the timeout
+                if (tail.get() == head) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    private void record(List<Offense> batch) {
+        List<Offense> accepted = new ArrayList<>(batch.size());
+        List<DemeritRecord> records = new ArrayList<>(batch.size());
+        // the cache may drop a person mid-batch, and a reload would miss the offenses of this batch not written yet
+        Map<String, Person> batchPeople = new HashMap<>();
+        for (Offense offense : batch) {
+            try {
+                Person person = batchPeople.get(offense.record.personID);
+                if (person == null) {
+                    person = loadPerson(offense.record.personID);
+                    if (person != null) {
+                        batchPeople.put(offense.record.personID, person);
+                    }
+                }
+                if (person == null || !person.applyDemeritPoints(offense.record.offenseDate, offense.record.points).equals("Success")) {
+                    offense.result.complete("Failed");
+                    continue;
+                }
+                offense.person = person;
+                accepted.add(offense);
+                records.add(offense.record);
+            } catch (Throwable e) {
+                offense.result.completeExceptionally(e);
+            }
+        }
+
+        try {
+            repository.addDemerits(records);
+            Map<String, Integer> points = new HashMap<>();
+            Set<String> suspended = new HashSet<>();
+            for (Offense offense : accepted) {
+                points.merge(offense.record.personID, offense.record.points, Integer::sum);
+                if (offense.person.isSuspended) {
+                    suspended.add(offense.record.personID);
+                }
+            }
+            totalsLock.lock();
+            try {
+                repository.updateTotals(points, suspended);
+            } finally {
+                totalsLock.unlock();
+            }
+        } catch (Throwable e) {
+            for (Offense offense : accepted) {
+                // the cached history includes offenses that were not recorded, so it is loaded again next time
+                people.remove(offense.record.personID);
+                offense.result.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Offense offense : accepted) {
+            try {
+                offense.person.notifyDemeritAdded(offense.record.offenseDate, offense.record.points);
+            } catch (Throwable e) {
+                // the offense is recorded, a broken index must not hold up its caller or the offenses after it
+                e.printStackTrace();
+            }
+            offense.result.complete("Success");
+        }
+    }
+
+    // the cached Person for an ID, loaded from the repository if needed, or null if there is no such person
+    private Person loadPerson(String personID) throws IOException {
+        Person person = people.get(personID);
+        if (person != null) {
+            return person;
+        }
+        // an evict that misses this is for an update stored before the find below, so the find sees the update
+        loading = personID;
+        try {
+            while (true) {
+                long seen = evictions.get();
+                PersonRecord record = repository.find(personID);
+                if (record == null) {
+                    return null;
+                }
+                person = new Person(repository);
+                person.personID = record.personID;
+                person.firstName = record.firstName;
+                person.lastName = record.lastName;
+                person.address = record.address;
+                person.birthdate = record.birthdate;
+                person.isSuspended = record.isSuspended;
+                person.getDemeritPoints();
+                people.put(personID, person);
+                if (evictions.get() == seen) {
+                    return person;
+                }
+                // evicted while loading, so the details may be from before an update
+                people.remove(personID, person);
+            }
+        } finally {
+            loading = null;
+        }
+    }
+
+    private static final class Offense {
+        final DemeritRecord record;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        Person person; // set by the consumer once the offense is accepted
+
+        Offense(DemeritRecord record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.roadregistry.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The DemeritLog appends offenses to demerits.txt and keeps an index of the byte offset of every row by person ID.
+ * A person's history can then be read with positional reads of just their rows instead of a scan of the whole file.
+ * The index is built on first use and then kept up to date by append. Rows appended by anything else,
+ * such as another process, are picked up from the end of the file on the next call.
+ */
+public class DemeritLog {
+
+    private static final Map<Path, DemeritLog> logs = new ConcurrentHashMap<>();
+    private static final int READ_SIZE = 64 * 1024;
+    private static final int ROW_SIZE = 64; // first guess for the length of a single row
+
+    private final Path path;
+    private final Map<String, long[]> offsets = new HashMap<>(); // first element of each array is the number of offsets
+    private long indexedLength = -1; // bytes of the file covered by the index, -1 until it is built
+
+    private DemeritLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the log for the given file. There is one log per file in a JVM so they all share one index.
+     */
+    public static DemeritLog forFile(Path path) {
+        return logs.computeIfAbsent(path.toAbsolutePath().normalize(), DemeritLog::new);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Appends an offense to the end of the file.
+     *
+     * @return the byte offset of the new row
+     */
+    public synchronized long append(String personID, String offenseDate, int points) throws IOException {
+        catchUp();
+        byte[] bytes = new DemeritRecord(personID, offenseDate, points).toLine().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (offset == indexedLength) {
+                add(personID, offset);
+                indexedLength = offset + bytes.length;
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Appends several offenses to the end of the file with a single write, and forces them to disk before returning.
+     * A single append only reaches the operating system's cache, like the other writes to the text files,
+     * but a batch is usually waited on by many callers, so the cost of the fsync is shared.
+     */
+    public synchronized void appendAll(List<DemeritRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        catchUp();
+        byte[][] rows = new byte[records.size()][];
+        int length = 0;
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = records.get(i).toLine().getBytes(StandardCharsets.UTF_8);
+            length += rows[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] row : rows) {
+            buffer.put(row);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            long offset = channel.size();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            if (offset == indexedLength) {
+                for (int i = 0; i < rows.length; i++) {
+                    add(records.get(i).personID, offset);
+                    offset += rows[i].length;
+                }
+                indexedLength = offset;
+            }
+        }
+    }
+
+    /**
+     * Reads every offense recorded for a person, in the order they were appended.
+     */
+    public synchronized List<DemeritRecord> read(String personID) throws IOException {
+        catchUp();
+        long[] personOffsets = offsets.get(personID);
+        List<DemeritRecord> entries = new ArrayList<>();
+        if (personOffsets == null) {
+            return entries;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(ROW_SIZE);
+            for (int i = 1; i <= personOffsets[0]; i++) {
+                buffer = readRow(channel, personOffsets[i], buffer);
+                DemeritRecord entry = DemeritRecord.parse(new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8));
+                if (entry != null && entry.personID.equals(personID)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Takes the rows that match the filter out of the file, passing each one to the mover first.
+     * The rest of the file, including rows that cannot be parsed, is written to a new file that then replaces it,
+     * but only after the mover has committed, so a failure leaves every row in the file.
+     * Appends through this log wait until the file has been replaced. Appends from another process do not,
+     * and rows they add during the rewrite are lost, so only one process may write the file while rows are moved.
+     *
+     * @return the number of rows moved out
+     */
+    public synchronized long moveRows(Predicate<DemeritRecord> filter, RowMover mover) throws IOException {
+        if (!Files.exists(path)) {
+            mover.commit(null);
+            return 0;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long moved = 0;
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+                 BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    DemeritRecord record = DemeritRecord.parse(line);
+                    if (record != null && filter.test(record)) {
+                        mover.move(record);
+                        moved++;
+                    } else {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+            }
+            // the moved rows are only safe in the mover, so the rest must be on disk before it replaces the file
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            mover.commit(path);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+            invalidate();
+        }
+        return moved;
+    }
+
+    /**
+     * Receives the rows moveRows takes out of the file.
+     */
+    public interface RowMover {
+        void move(DemeritRecord record) throws IOException;
+
+        /**
+         * Called once every row has been passed to move. The rows must be stored somewhere safe when this returns.
+         *
+         * @param file the file the rows are being moved out of, still unchanged, or null if there is no file
+         */
+        void commit(Path file) throws IOException;
+    }
+
+    /**
+     * Drops the index so it is built again from the file on the next call.
+     * Needed after the file has been rewritten rather than appended to.
+     */
+    public synchronized void invalidate() {
+        offsets.clear();
+        indexedLength = -1;
+    }
+
+    // brings the index up to date with the file, rebuilding it if the file was not simply appended to
+    private void catchUp() throws IOException {
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (NoSuchFileException e) {
+            invalidate();
+            indexedLength = 0;
+            return;
+        }
+        if (indexedLength < 0 || size < indexedLength || !endsRow(indexedLength)) {
+            offsets.clear();
+            indexedLength = 0;
+        }
+        if (size == indexedLength) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            long position = indexedLength;
+            long rowStart = indexedLength;
+            byte[] id = new byte[32];
+            int idLength = 0;
+            boolean inId = true;
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '\n') {
+                        if (!inId) {
+                            add(new String(id, 0, idLength, StandardCharsets.UTF_8).trim(), rowStart);
+                        }
+                        rowStart = position + i + 1;
+                        idLength = 0;
+                        inId = true;
+                    } else if (inId) {
+                        if (b == ',') {
+                            inId = false;
+                        } else {
+                            if (idLength == id.length) {
+                                id = Arrays.copyOf(id, id.length * 2);
+                            }
+                            id[idLength++] = b;
+                        }
+                    }
+                }
+                position += read;
+            }
+            // a row without its newline yet is picked up on a later call
+            indexedLength = rowStart;
+        }
+    }
+
+    // true if the byte just before the given length is a newline, i.e. the indexed part still ends on a row
+    private boolean endsRow(long length) throws IOException {
+        if (length == 0) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            return channel.read(last, length - 1) == 1 && last.get(0) == '\n';
+        }
+    }
+
+    // reads the row at offset into the buffer (growing it if needed), flipped and without the newline
+    private static ByteBuffer readRow(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (true) {
+            int read = channel.read(buffer, offset + buffer.position());
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    buffer.limit(i);
+                    buffer.position(0);
+                    return buffer;
+                }
+            }
+            if (read <= 0) {
+                buffer.flip();
+                return buffer;
+            }
+            if (!buffer.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    private void add(String personID, long offset) {
+        long[] personOffsets = offsets.get(personID);
+        if (personOffsets == null) {
+            personOffsets = new long[4];
+        } else if (personOffsets[0] + 1 == personOffsets.length) {
+            personOffsets = Arrays.copyOf(personOffsets, personOffsets.length * 2);
+        }
+        personOffsets[(int) ++personOffsets[0]] = offset;
+        offsets.put(personID, personOffsets);
+    }
+}
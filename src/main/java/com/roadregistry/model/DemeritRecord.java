@@ -0,0 +1,57 @@
+package com.roadregistry.model;
+
+/**
+ * A DemeritRecord is one recorded offense: ID, dd-MM-yyyy, points.
+ */
+public final class DemeritRecord {
+    public final String personID;
+    public final String offenseDate;
+    public final int points;
+
+    public DemeritRecord(String personID, String offenseDate, int points) {
+        this.personID = personID;
+        this.offenseDate = offenseDate;
+        this.points = points;
+    }
+
+    /**
+     * Parses a row of demerits.txt.
+     *
+     * @return the record, or null if the row does not fit the format
+     */
+    public static DemeritRecord parse(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new DemeritRecord(parts[0].trim(), parts[1].trim(), Integer.parseInt(parts[2].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // the row as written to demerits.txt, including the newline
+    public String toLine() {
+        return personID + ", " + offenseDate + ", " + points + "\n";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DemeritRecord)) {
+            return false;
+        }
+        DemeritRecord other = (DemeritRecord) o;
+        return personID.equals(other.personID) && offenseDate.equals(other.offenseDate) && points == other.points;
+    }
+
+    @Override
+    public int hashCode() {
+        return toLine().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toLine().trim();
+    }
+}
@@ -0,0 +1,225 @@
+package com.roadregistry.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A FilePersonRepository keeps the records in the text files person.txt and demerits.txt at the given paths.
+ * Rows that do not fit the format are skipped and kept unchanged (PersonFileChecker reports and quarantines them).
+ * Updates write a new person file and move it over the old one, so readers always see a whole file.
+ * The IDs in the person file are kept in memory, so add and replace can check for a taken ID without reading the
+ * file. They are read on first use and again whenever the file, its size or its modification time is not what
+ * this repository last wrote, such as after another process has changed it.
+ */
+public class FilePersonRepository implements PersonRepository {
+
+    private final Path personFile;
+    private final Path demeritsFile;
+    private final DemeritLog demeritLog;
+    private final List<RegistryListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<String> ids = new HashSet<>(); // guarded by this
+    private BasicFileAttributes indexed;              // the person file the IDs are from, null until read
+
+    public FilePersonRepository(Path personFile, Path demeritsFile) {
+        this.personFile = personFile;
+        this.demeritsFile = demeritsFile;
+        this.demeritLog = DemeritLog.forFile(demeritsFile);
+    }
+
+    /**
+     * Returns a repository for person.txt and demerits.txt in the given directory.
+     */
+    public static FilePersonRepository inDirectory(Path directory) {
+        return new FilePersonRepository(directory.resolve("person.txt"), directory.resolve("demerits.txt"));
+    }
+
+    public Path getPersonFile() {
+        return personFile;
+    }
+
+    public Path getDemeritsFile() {
+        return demeritsFile;
+    }
+
+    public DemeritLog getDemeritLog() {
+        return demeritLog;
+    }
+
+    @Override
+    public PersonRecord find(String personID) throws IOException {
+        if (!Files.exists(personFile)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(personFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PersonRecord record = PersonRecord.parse(line);
+                if (record != null && record.personID.equals(personID)) {
+                    return record;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized boolean add(PersonRecord record) throws IOException {
+        // replace is synchronized too, so the ID cannot be taken between the check and the append
+        if (ids().contains(record.personID)) {
+            return false;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(personFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(record.toLine());
+            writer.newLine();
+        }
+        ids.add(record.personID);
+        indexed = attributes();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean replace(String personID, PersonRecord record) throws IOException {
+        Set<String> stored = ids();
+        if (!stored.contains(personID) || (!personID.equals(record.personID) && stored.contains(record.personID))) {
+            return false;
+        }
+        List<String> lines = new ArrayList<>();
+        boolean replaced = false;
+        try (BufferedReader reader = Files.newBufferedReader(personFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PersonRecord existing = replaced ? null : PersonRecord.parse(line);
+                if (existing != null && existing.personID.equals(personID)) {
+                    lines.add(record.toLine());
+                    replaced = true;
+                } else {
+                    lines.add(line);
+                }
+            }
+        }
+        if (replaced) {
+            Path temp = personFile.resolveSibling(personFile.getFileName() + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, personFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ids.remove(personID);
+            ids.add(record.personID);
+            indexed = attributes();
+        }
+        return replaced;
+    }
+
+    @Override
+    public synchronized List<PersonRecord> updateTotals(Map<String, Integer> points, Set<String> suspended) throws IOException {
+        List<PersonRecord> updated = new ArrayList<>();
+        Set<String> stored = ids();
+        if (points.keySet().stream().noneMatch(stored::contains)) {
+            return updated;
+        }
+        // one new file for the whole batch, with only the first row for each ID changed like replace
+        Set<String> done = new HashSet<>();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(personFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PersonRecord existing = PersonRecord.parse(line);
+                if (existing != null && points.containsKey(existing.personID) && done.add(existing.personID)) {
+                    PersonRecord record = existing.withDemerits(points.get(existing.personID), suspended.contains(existing.personID));
+                    lines.add(record.toLine());
+                    updated.add(record);
+                } else {
+                    lines.add(line);
+                }
+            }
+        }
+        Path temp = personFile.resolveSibling(personFile.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, personFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexed = attributes();
+        return updated;
+    }
+
+    // the IDs in the person file, read again if something else has changed the file, callers hold the lock
+    private Set<String> ids() throws IOException {
+        BasicFileAttributes current = attributes();
+        if (indexed == null || current == null || !Objects.equals(current.fileKey(), indexed.fileKey())
+                || current.size() != indexed.size() || !current.lastModifiedTime().equals(indexed.lastModifiedTime())) {
+            ids.clear();
+            forEach(record -> ids.add(record.personID));
+            indexed = current;
+        }
+        return ids;
+    }
+
+    private BasicFileAttributes attributes() throws IOException {
+        try {
+            return Files.readAttributes(personFile, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<PersonRecord> action) throws IOException {
+        if (!Files.exists(personFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(personFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PersonRecord record = PersonRecord.parse(line);
+                if (record != null) {
+                    action.accept(record);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addDemerit(DemeritRecord record) throws IOException {
+        demeritLog.append(record.personID, record.offenseDate, record.points);
+    }
+
+    @Override
+    public void addDemerits(List<DemeritRecord> records) throws IOException {
+        demeritLog.appendAll(records);
+    }
+
+    @Override
+    public List<DemeritRecord> demerits(String personID) throws IOException {
+        return demeritLog.read(personID);
+    }
+
+    @Override
+    public void forEachDemerit(Consumer<DemeritRecord> action) throws IOException {
+        if (!Files.exists(demeritsFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(demeritsFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                DemeritRecord record = DemeritRecord.parse(line);
+                if (record != null) {
+                    action.accept(record);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<RegistryListener> listeners() {
+        return listeners;
+    }
+}
@@ -0,0 +1,94 @@
+package com.roadregistry.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * An InMemoryPersonRepository keeps the records in concurrent maps, for tests, per-tenant registries
+ * and callers that want a hot copy without disk I/O. Reads never block, writes to person records are serialised.
+ * forEach returns the records in no particular order.
+ */
+public class InMemoryPersonRepository implements PersonRepository {
+
+    private final Map<String, PersonRecord> people = new ConcurrentHashMap<>();
+    private final Map<String, List<DemeritRecord>> demerits = new ConcurrentHashMap<>();
+    private final List<RegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public PersonRecord find(String personID) {
+        return people.get(personID);
+    }
+
+    // synchronized like replace, so a replace cannot take the ID between its check and its put
+    @Override
+    public synchronized boolean add(PersonRecord record) {
+        return people.putIfAbsent(record.personID, record) == null;
+    }
+
+    @Override
+    public synchronized boolean replace(String personID, PersonRecord record) {
+        if (!people.containsKey(personID) || (!personID.equals(record.personID) && people.containsKey(record.personID))) {
+            return false;
+        }
+        if (!personID.equals(record.personID)) {
+            people.remove(personID);
+        }
+        people.put(record.personID, record);
+        return true;
+    }
+
+    @Override
+    public synchronized List<PersonRecord> updateTotals(Map<String, Integer> points, Set<String> suspended) {
+        List<PersonRecord> updated = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : points.entrySet()) {
+            PersonRecord record = people.get(entry.getKey());
+            if (record != null) {
+                record = record.withDemerits(entry.getValue(), suspended.contains(entry.getKey()));
+                people.put(record.personID, record);
+                updated.add(record);
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public void forEach(Consumer<PersonRecord> action) {
+        people.values().forEach(action);
+    }
+
+    @Override
+    public void addDemerit(DemeritRecord record) {
+        demerits.computeIfAbsent(record.personID, id -> new CopyOnWriteArrayList<>()).add(record);
+    }
+
+    @Override
+    public List<DemeritRecord> demerits(String personID) {
+        List<DemeritRecord> recorded = demerits.get(personID);
+        return recorded == null ? new ArrayList<>() : new ArrayList<>(recorded);
+    }
+
+    // keeps only the person's first count offenses, for a replica whose snapshot has offenses added after it
+    void keepDemerits(String personID, int count) {
+        List<DemeritRecord> recorded = demerits.get(personID);
+        if (recorded != null && recorded.size() > count) {
+            recorded.subList(count, recorded.size()).clear();
+        }
+    }
+
+    @Override
+    public void forEachDemerit(Consumer<DemeritRecord> action) {
+        for (List<DemeritRecord> recorded : demerits.values()) {
+            recorded.forEach(action);
+        }
+    }
+
+    @Override
+    public List<RegistryListener> listeners() {
+        return listeners;
+    }
+}
@@ -0,0 +1,300 @@
+package com.roadregistry.model;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * The NameSearchIndex finds people by misspelled or partial names.
+ * First and last names are normalised (lower case, accents removed, apostrophes and hyphens treated as spaces)
+ * and split into trigrams, and an inverted index maps each trigram to the people whose name contains it.
+ * Candidates are ranked by the Dice similarity of their trigrams with the query's.
+ * Register it with PersonRepository.addListener to keep it up to date as people are added and updated.
+ * An update marks the person's old doc as removed. Once removed docs are more than half of all docs, the live ones
+ * are renumbered and the removed ones dropped from the postings, so the index grows with the number of people
+ * and not with the number of updates.
+ */
+public class NameSearchIndex implements RegistryListener {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_LETTERS = Pattern.compile("[^\\p{L}]+");
+    // a candidate must share at least this fraction of the query's trigrams
+    private static final double MIN_SHARED = 1.0 / 3;
+
+    private final Map<Long, int[]> postings = new HashMap<>(); // first element of each array is the number of docs
+    private final Map<String, Integer> docByPerson = new HashMap<>();
+    private String[] personByDoc = new String[1024];
+    private int[] trigramsByDoc = new int[1024]; // number of distinct trigrams in each doc
+    private final BitSet removed = new BitSet();
+    private int removedCount;
+    private int docCount;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Builds an index of every person in a repository in one pass.
+     */
+    public static NameSearchIndex load(PersonRepository repository) throws IOException {
+        NameSearchIndex index = new NameSearchIndex();
+        Set<String> seen = new HashSet<>();
+        repository.forEach(record -> {
+            // only the first record for an ID is the one find returns
+            if (seen.add(record.personID)) {
+                index.add(record.personID, record.firstName, record.lastName);
+            }
+        });
+        return index;
+    }
+
+    @Override
+    public void personAdded(Person person) {
+        add(person.personID, person.firstName, person.lastName);
+    }
+
+    @Override
+    public void personUpdated(String oldID, Person person) {
+        lock.writeLock().lock();
+        try {
+            removeDoc(oldID);
+            add(person.personID, person.firstName, person.lastName);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void reloaded(PersonRepository repository) throws IOException {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docByPerson.clear();
+            personByDoc = new String[1024];
+            trigramsByDoc = new int[1024];
+            removed.clear();
+            removedCount = 0;
+            docCount = 0;
+            repository.forEach(record -> {
+                // only the first record for an ID is the one find returns
+                if (!docByPerson.containsKey(record.personID)) {
+                    add(record.personID, record.firstName, record.lastName);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a person, replacing any names already indexed for the same ID.
+     */
+    public void add(String personID, String firstName, String lastName) {
+        long[] trigrams = trigrams(normalise(firstName + " " + lastName));
+        lock.writeLock().lock();
+        try {
+            removeDoc(personID);
+            int doc = docCount++;
+            if (doc == personByDoc.length) {
+                personByDoc = Arrays.copyOf(personByDoc, doc * 2);
+                trigramsByDoc = Arrays.copyOf(trigramsByDoc, doc * 2);
+            }
+            personByDoc[doc] = personID;
+            trigramsByDoc[doc] = trigrams.length;
+            docByPerson.put(personID, doc);
+            for (long trigram : trigrams) {
+                int[] docs = postings.get(trigram);
+                if (docs == null) {
+                    docs = new int[4];
+                } else if (docs[0] + 1 == docs.length) {
+                    docs = Arrays.copyOf(docs, docs.length * 2);
+                }
+                docs[++docs[0]] = doc; // docs are numbered in order, so every list stays sorted
+                postings.put(trigram, docs);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String personID) {
+        lock.writeLock().lock();
+        try {
+            removeDoc(personID);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the people whose names are most like the given name.
+     *
+     * @param name  a full or partial first and/or last name, in any order
+     * @param limit the maximum number of results
+     * @return person IDs, best match first
+     */
+    public List<String> search(String name, int limit) {
+        long[] trigrams = trigrams(normalise(name));
+        if (trigrams.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<int[]> lists = new ArrayList<>();
+            for (long trigram : trigrams) {
+                int[] docs = postings.get(trigram);
+                lists.add(docs == null ? new int[]{0} : docs);
+            }
+            lists.sort(Comparator.comparingInt(docs -> docs[0]));
+
+            // a doc sharing at least minShared trigrams must be in one of the shortest (k - minShared + 1) lists,
+            // so only those are merged to find candidates, and the long lists are only probed by binary search
+            int minShared = Math.max(1, (int) Math.ceil(trigrams.length * MIN_SHARED));
+            int candidateLists = trigrams.length - minShared + 1;
+            int probeLists = lists.size() - candidateLists;
+            int[] next = new int[candidateLists];
+            Arrays.fill(next, 1);
+
+            PriorityQueue<double[]> best = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry[0]));
+            while (true) {
+                // the lists are sorted, so the smallest head is the next candidate and equal heads are shared trigrams
+                int doc = Integer.MAX_VALUE;
+                for (int l = 0; l < candidateLists; l++) {
+                    int[] docs = lists.get(l);
+                    if (next[l] <= docs[0] && docs[next[l]] < doc) {
+                        doc = docs[next[l]];
+                    }
+                }
+                if (doc == Integer.MAX_VALUE) {
+                    break;
+                }
+                int count = 0;
+                for (int l = 0; l < candidateLists; l++) {
+                    int[] docs = lists.get(l);
+                    if (next[l] <= docs[0] && docs[next[l]] == doc) {
+                        count++;
+                        next[l]++;
+                    }
+                }
+                if (removed.get(doc) || count + probeLists < minShared) {
+                    continue;
+                }
+                // skip the binary searches when even sharing every remaining trigram could not make the top results
+                int denominator = trigrams.length + trigramsByDoc[doc];
+                if (best.size() == limit && 2.0 * Math.min(count + probeLists, trigramsByDoc[doc]) / denominator <= best.peek()[0]) {
+                    continue;
+                }
+                for (int l = candidateLists; l < lists.size(); l++) {
+                    int[] docs = lists.get(l);
+                    if (Arrays.binarySearch(docs, 1, docs[0] + 1, doc) >= 0) {
+                        count++;
+                    }
+                }
+                if (count < minShared) {
+                    continue;
+                }
+                best.add(new double[]{2.0 * count / denominator, doc});
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+
+            List<double[]> ranked = new ArrayList<>(best);
+            ranked.sort((a, b) -> a[0] != b[0] ? Double.compare(b[0], a[0])
+                    : personByDoc[(int) a[1]].compareTo(personByDoc[(int) b[1]]));
+            List<String> result = new ArrayList<>();
+            for (double[] entry : ranked) {
+                result.add(personByDoc[(int) entry[1]]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // marks the person's current doc as removed, its postings are skipped from then on, callers hold the write lock
+    private void removeDoc(String personID) {
+        Integer doc = docByPerson.remove(personID);
+        if (doc != null) {
+            removed.set(doc);
+            if (++removedCount > docCount / 2) {
+                compact();
+            }
+        }
+    }
+
+    // renumbers the live docs in order and drops the removed ones from every posting list, which stays sorted,
+    // callers hold the write lock
+    private void compact() {
+        int[] renumbered = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (removed.get(doc)) {
+                renumbered[doc] = -1;
+            } else {
+                renumbered[doc] = live;
+                personByDoc[live] = personByDoc[doc];
+                trigramsByDoc[live] = trigramsByDoc[doc];
+                docByPerson.put(personByDoc[live], live);
+                live++;
+            }
+        }
+        for (Iterator<Map.Entry<Long, int[]>> entries = postings.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Long, int[]> entry = entries.next();
+            int[] docs = entry.getValue();
+            int kept = 0;
+            for (int i = 1; i <= docs[0]; i++) {
+                int doc = renumbered[docs[i]];
+                if (doc >= 0) {
+                    docs[++kept] = doc;
+                }
+            }
+            docs[0] = kept;
+            if (kept == 0) {
+                entries.remove();
+            } else if (kept * 4 < docs.length) {
+                entry.setValue(Arrays.copyOf(docs, Math.max(4, kept * 2)));
+            }
+        }
+        int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, live)) * 2);
+        if (capacity < personByDoc.length) {
+            personByDoc = Arrays.copyOf(personByDoc, capacity);
+            trigramsByDoc = Arrays.copyOf(trigramsByDoc, capacity);
+        }
+        Arrays.fill(personByDoc, live, Math.min(docCount, personByDoc.length), null);
+        docCount = live;
+        removed.clear();
+        removedCount = 0;
+    }
+
+    // lower case without accents, with anything that is not a letter turned into a single space
+    static String normalise(String name) {
+        if (name == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        String letters = MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+        return NON_LETTERS.matcher(letters).replaceAll(" ").trim();
+    }
+
+    // the distinct trigrams of every word padded with spaces, each packed into a long as three 16 bit chars
+    static long[] trigrams(String normalised) {
+        Set<Long> trigrams = new LinkedHashSet<>();
+        for (String word : normalised.split(" ")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                trigrams.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+            }
+        }
+        long[] result = new long[trigrams.size()];
+        int i = 0;
+        for (long trigram : trigrams) {
+            result[i++] = trigram;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,353 @@
+package com.roadregistry.model;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The OffenseTimeSeries keeps registry-wide offense counts and demerit point totals per day,
+ * so range questions such as "how many points were recorded between two dates" are answered in O(log n)
+ * instead of scanning every recorded offense. Days are keyed by epoch day and stored in Fenwick (binary indexed) trees.
+ * The series can also be split by the postcode of the person's address. Postcodes are kept by person ID from load and
+ * the add and update events, because callers of addDemeritPoints often only fill in the ID and birthdate.
+ * Register it with PersonRepository.addListener to keep it up to date as addDemeritPoints records offenses.
+ */
+public class OffenseTimeSeries implements RegistryListener {
+
+    private static final int INITIAL_DAYS = 4096;   // about 11 years
+    private static final int MAX_DAYS = 1 << 17;     // about 358 years, keeps each tree at 1 MB at most
+
+    private final boolean byPostcode;
+    private final Series total = new Series();
+    private final Map<String, Series> postcodes = new HashMap<>();
+    private final Map<String, String> postcodeById = new ConcurrentHashMap<>(); // only filled when splitting by postcode
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param byPostcode true to also keep a series for each postcode
+     */
+    public OffenseTimeSeries(boolean byPostcode) {
+        this.byPostcode = byPostcode;
+    }
+
+    /**
+     * Builds a series from the offenses already in a repository, in one pass over the people and one over the offenses.
+     * People are only read when splitting by postcode.
+     */
+    public static OffenseTimeSeries load(PersonRepository repository, boolean byPostcode) throws IOException {
+        return load(repository, null, byPostcode);
+    }
+
+    /**
+     * Builds a series from the offenses in a repository and those already moved to its archive,
+     * so trends over any period count every offense and not only the last two years.
+     *
+     * @param archive the repository's archive, or null if it has none
+     */
+    public static OffenseTimeSeries load(PersonRepository repository, DemeritArchive archive, boolean byPostcode) throws IOException {
+        OffenseTimeSeries series = new OffenseTimeSeries(byPostcode);
+        if (byPostcode) {
+            repository.forEach(record -> series.remember(record.personID, record.address, false));
+        }
+        if (archive != null) {
+            archive.forEach(series::load);
+        }
+        repository.forEachDemerit(series::load);
+        return series;
+    }
+
+    @Override
+    public void personAdded(Person person) {
+        remember(person.personID, person.address, false);
+    }
+
+    @Override
+    public void personUpdated(String oldID, Person person) {
+        if (byPostcode) {
+            postcodeById.remove(oldID);
+        }
+        remember(person.personID, person.address, true);
+    }
+
+    // offenses too far from the others to fit in the series are left out rather than failing addDemeritPoints
+    @Override
+    public void demeritAdded(Person person, LocalDate offenseDate, int points) {
+        String postcode = null;
+        if (byPostcode) {
+            // the stored address, the Person may only have the ID and birthdate; one the series has never seen is used as given
+            postcode = postcodeById.get(person.personID);
+            if (postcode == null) {
+                postcode = postcodeOf(person.address);
+            }
+        }
+        try {
+            add(postcode, offenseDate.toEpochDay(), points);
+        } catch (IllegalArgumentException e) {
+            // the offense is still in the repository
+        }
+    }
+
+    // the archive is not read again, a repository that is replaced whole (a replica's copy) has none
+    @Override
+    public void reloaded(PersonRepository repository) throws IOException {
+        lock.writeLock().lock();
+        try {
+            total.clear();
+            postcodes.clear();
+            postcodeById.clear();
+            if (byPostcode) {
+                repository.forEach(record -> remember(record.personID, record.address, false));
+            }
+            repository.forEachDemerit(this::load);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load(DemeritRecord record) {
+        long day = epochDay(record.offenseDate);
+        if (day == Long.MIN_VALUE) {
+            return;
+        }
+        try {
+            add(postcodeById.get(record.personID), day, record.points);
+        } catch (IllegalArgumentException e) {
+            // skip offenses with a date far outside the other offenses
+        }
+    }
+
+    // like the repositories, the first record for an ID is the one that counts unless it is replaced
+    private void remember(String personID, String address, boolean replace) {
+        String postcode = postcodeOf(address);
+        if (!byPostcode || personID == null || postcode == null) {
+            return;
+        }
+        if (replace) {
+            postcodeById.put(personID, postcode);
+        } else {
+            postcodeById.putIfAbsent(personID, postcode);
+        }
+    }
+
+    /**
+     * Records one offense.
+     *
+     * @param postcode the postcode of the person, or null if it is not known
+     * @throws IllegalArgumentException if the date is too far from the other offenses in the series
+     */
+    public void add(String postcode, LocalDate offenseDate, int points) {
+        add(postcode, offenseDate.toEpochDay(), points);
+    }
+
+    private void add(String postcode, long day, int points) {
+        lock.writeLock().lock();
+        try {
+            total.add(day, points);
+            if (byPostcode && postcode != null) {
+                postcodes.computeIfAbsent(postcode, p -> new Series()).add(day, points);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // number of offenses between the two dates, both inclusive
+    public long count(LocalDate from, LocalDate to) {
+        return query(total, from, to, false);
+    }
+
+    // demerit points recorded between the two dates, both inclusive
+    public long points(LocalDate from, LocalDate to) {
+        return query(total, from, to, true);
+    }
+
+    public long count(String postcode, LocalDate from, LocalDate to) {
+        return query(series(postcode), from, to, false);
+    }
+
+    public long points(String postcode, LocalDate from, LocalDate to) {
+        return query(series(postcode), from, to, true);
+    }
+
+    /**
+     * Returns the demerit points recorded on each day between the two dates, both inclusive.
+     */
+    public long[] dailyPoints(LocalDate from, LocalDate to) {
+        long first = from.toEpochDay();
+        long last = to.toEpochDay();
+        if (last < first) {
+            return new long[0];
+        }
+        long[] days = new long[(int) (last - first + 1)];
+        lock.readLock().lock();
+        try {
+            long previous = total.prefix(total.points, first - 1);
+            for (int i = 0; i < days.length; i++) {
+                long current = total.prefix(total.points, first + i);
+                days[i] = current - previous;
+                previous = current;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return days;
+    }
+
+    /**
+     * Returns the demerit points recorded between the two dates for every postcode, sorted by postcode.
+     */
+    public Map<String, Long> pointsByPostcode(LocalDate from, LocalDate to) {
+        Map<String, Long> result = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Series> entry : postcodes.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().range(entry.getValue().points, from.toEpochDay(), to.toEpochDay()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private Series series(String postcode) {
+        if (!byPostcode) {
+            throw new IllegalStateException("This series is not split by postcode");
+        }
+        lock.readLock().lock();
+        try {
+            return postcodes.get(postcode);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long query(Series series, LocalDate from, LocalDate to, boolean points) {
+        if (series == null) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            return series.range(points ? series.points : series.counts, from.toEpochDay(), to.toEpochDay());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the postcode is the third part of the address: Street|City|Postcode|State|Country
+    static String postcodeOf(String address) {
+        if (address == null) {
+            return null;
+        }
+        String[] parts = address.split("\\|");
+        return parts.length == 5 ? parts[2].trim() : null;
+    }
+
+    // parses dd-MM-yyyy straight into an epoch day, returns Long.MIN_VALUE if the date is invalid
+    static long epochDay(String date) {
+        if (date.length() != 10 || date.charAt(2) != '-' || date.charAt(5) != '-') {
+            return Long.MIN_VALUE;
+        }
+        try {
+            int day = Integer.parseInt(date.substring(0, 2));
+            int month = Integer.parseInt(date.substring(3, 5));
+            int year = Integer.parseInt(date.substring(6));
+            return LocalDate.of(year, month, day).toEpochDay();
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Two Fenwick trees over the same range of days, one for offense counts and one for points.
+     * The range grows in either direction when a day outside it is added.
+     */
+    private static class Series {
+        private long base;        // epoch day stored at index 1
+        private long[] counts;    // 1-based Fenwick tree, index 0 is unused
+        private long[] points;
+
+        void clear() {
+            base = 0;
+            counts = null;
+            points = null;
+        }
+
+        void add(long day, int value) {
+            if (counts == null) {
+                base = day - INITIAL_DAYS / 2;
+                counts = new long[INITIAL_DAYS + 1];
+                points = new long[INITIAL_DAYS + 1];
+            }
+            if (day < base || day >= base + size()) {
+                grow(day);
+            }
+            int index = (int) (day - base) + 1;
+            for (int i = index; i < counts.length; i += i & -i) {
+                counts[i]++;
+                points[i] += value;
+            }
+        }
+
+        // sum of the tree from the first stored day up to and including day
+        long prefix(long[] tree, long day) {
+            if (tree == null || day < base) {
+                return 0;
+            }
+            int index = (int) Math.min(day - base + 1, size());
+            long sum = 0;
+            for (int i = index; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        long range(long[] tree, long from, long to) {
+            return to < from ? 0 : prefix(tree, to) - prefix(tree, from - 1);
+        }
+
+        private int size() {
+            return counts.length - 1;
+        }
+
+        // doubles the range until it covers day, keeping the stored values
+        private void grow(long day) {
+            long newBase = base;
+            long newSize = size();
+            while (day < newBase || day >= newBase + newSize) {
+                if (day < newBase) {
+                    newBase -= newSize;
+                }
+                newSize *= 2;
+            }
+            if (newSize > MAX_DAYS) {
+                throw new IllegalArgumentException("Offense date is too far from the other offenses");
+            }
+            counts = rebuild(counts, (int) (base - newBase), (int) newSize);
+            points = rebuild(points, (int) (base - newBase), (int) newSize);
+            base = newBase;
+        }
+
+        // turns the tree back into plain values, shifts them and builds a bigger tree, both steps are O(n)
+        private static long[] rebuild(long[] tree, int shift, int newSize) {
+            int n = tree.length - 1;
+            for (int i = n; i > 0; i--) {
+                int parent = i + (i & -i);
+                if (parent <= n) {
+                    tree[parent] -= tree[i];
+                }
+            }
+            long[] grown = new long[newSize + 1];
+            System.arraycopy(tree, 1, grown, 1 + shift, n);
+            for (int i = 1; i <= newSize; i++) {
+                int parent = i + (i & -i);
+                if (parent <= newSize) {
+                    grown[parent] += grown[i];
+                }
+            }
+            return grown;
+        }
+    }
+}
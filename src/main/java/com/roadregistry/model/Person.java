@@ -1,20 +1,42 @@
 package com.roadregistry.model;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Struct;
 import java.time.LocalDate;
 import java.time.Period;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.text.SimpleDateFormat;
 
 /**
  * The Person class represents a person in the Road Registry system.
  * It holds personal details and manages demerit points issued for traffic offenses.
+ * The details and offenses are stored in a PersonRepository, by default person.txt and demerits.txt
+ * in the working directory.
  */
 public class Person {
+    // validators are run once per row by PersonFileChecker, so the patterns and formatter are compiled once here
+    private static final Pattern NAME_PATTERN = Pattern.compile("^[\\p{L}\\s'-]{1,50}$");
+    private static final Pattern ID_PREFIX_PATTERN = Pattern.compile("[2-9]{2}");
+    private static final Pattern ID_SUFFIX_PATTERN = Pattern.compile("[A-Z]{2}");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    // addDemeritPoints runs once per offense on DemeritIngestor's thread, so its pattern and strict formatter are
+    // built once too (SimpleDateFormat is not thread-safe, so each thread keeps its own)
+    private static final Pattern OFFENSE_DATE_PATTERN = Pattern.compile("\\d{2}-\\d{2}-\\d{4}");
+    private static final ThreadLocal<SimpleDateFormat> OFFENSE_DATE_FORMAT = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
+        formatter.setLenient(false); // Make parsing strict to reject invalid dates
+        return formatter;
+    });
+    // the repository used by Person objects created without one, the files the registry has always used
+    private static final PersonRepository DEFAULT_REPOSITORY =
+            new FilePersonRepository(Paths.get("person.txt"), Paths.get("demerits.txt"));
+
+    private final PersonRepository repository;
+
     public String personID;
     public String firstName;
     public String lastName;
@@ -22,9 +44,30 @@ public class Person {
     public String birthdate; // Expected in "dd-MM-yyyy" format
     public HashMap<Date, Integer> demeritPoints = new HashMap<>(); // Stores demerit points with the offense date
     public boolean isSuspended = false; // Indicates whether the person is suspended
+    private boolean demeritHistoryLoaded = false; // set once the recorded offenses are merged into demeritPoints
+
+    public Person() {
+        this(DEFAULT_REPOSITORY);
+    }
+
+    /**
+     * Creates a person whose details and offenses are stored in the given repository.
+     */
+    public Person(PersonRepository repository) {
+        this.repository = repository;
+    }
+
+    // the repository behind Person objects created with the no-argument constructor
+    public static PersonRepository defaultRepository() {
+        return DEFAULT_REPOSITORY;
+    }
+
+    public PersonRepository getRepository() {
+        return repository;
+    }
 
     /**
-     * Adds a person to the system by storing their information in a TXT file.
+     * Adds a person to the system by storing their information in the repository.
      * The person's information must meet all validation conditions.
      *
      * @return true if person is successfully added, false otherwise
@@ -36,117 +79,105 @@ public class Person {
             return false;
         }
         
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("person.txt", true))) {
-            //write person data in comma-separated format to match updatePersonalDetails expectations
-            //format: ID, First name, Last name, Address, Birthday, Demerit Points, is suspended
-            writer.write(personID + "," + firstName + "," + lastName + "," + address + "," + birthdate + ",0,false");
-            writer.newLine();
-            return true;
+        try {
+            //a new person starts with no demerit points and is not suspended, an ID that is already taken is rejected
+            if (!repository.add(new PersonRecord(personID, firstName, lastName, address, birthdate, 0, false))) {
+                return false;
+            }
         } catch (IOException e) {
             return false;
         }
+
+        //let the in-memory indexes know about the new person
+        for (RegistryListener listener : repository.listeners()) {
+            listener.personAdded(this);
+        }
+        return true;
     }
 
     public Boolean updatePersonalDetails(String personID, String newID, String newFirstName, String newLastName, String newAddress, String newBirthdate) {
 
-        //assume the format of text file is: ID, First name, Last name, Address, Birthday, Demerit Points, is suspended
-        String filePath = "person.txt";
-        List<String> newlines = new ArrayList<>();
-        Boolean updated = false;
-
-        //read the person.txt (original data) and separate to parts
+        //look up the stored record: ID, First name, Last name, Address, Birthday, Demerit Points, is suspended
         try {
-           List<String> lines = Files.readAllLines(Paths.get(filePath));
-           for (String line : lines) {
-
-               String[] parts = line.split(",");
-               // check the format fit with the assumed format
-               if (parts.length!=7){
-                   return false;
-               }
-               String oriId = parts[0].trim();
-               String oriFirstName = parts[1].trim();
-               String oriLastName = parts[2].trim();
-               String oriAddress = parts[3].trim();
-               String oriBirthdate = parts[4].trim();
-               String oriDemeritPoints = parts[5].trim();
-               String oriSuspended = parts[6].trim();
-
-
-                // allow user input null value(doesn't change), if user decide to keep the original value then keep using the old one
-               if (oriId.equals(personID)) {
-                   String updateId = (newID == null || newID.isEmpty()) ? oriId : newID;
-                   String updateFirstName = (newFirstName == null || newFirstName.isEmpty()) ? oriFirstName : newFirstName;
-                   String updateLastName = (newLastName == null || newLastName.isEmpty()) ? oriLastName : newLastName;
-                   String updateAddress = (newAddress == null || newAddress.isEmpty()) ? oriAddress : newAddress;
-                   String updateBirthdate = (newBirthdate == null || newBirthdate.isEmpty()) ? oriBirthdate : newBirthdate;
-
-                   //check if the updated value is same as original value, if yes then skip the validation
-                   if(!updateId.equals(oriId) && !isValidId(updateId)) {
-                       return false;
-                   }
-                   if(!updateFirstName.equals(oriFirstName) && !isValidName(updateFirstName)){
-                       return false;
-                   }
-                   if(!updateLastName.equals(oriLastName)&& !isValidName(updateLastName)) {
-                       return false;
-                   }
-                   if (!updateAddress.equals(oriAddress) && !isValidAddress(updateAddress)) {
-                       return false;
-                   }
-                   if (!updateBirthdate.equals(oriBirthdate) && !isValidBirthdate(updateBirthdate)) {
-                       return false;
-                   }
-
-                   int age = calculateAge(oriBirthdate);
-
-                   //checking if the value is updated, for some condition might need to use
-                   boolean idUpdated = !updateId.equals(oriId);
-                   boolean NameUpdated = !updateLastName.equals(oriLastName) || !updateFirstName.equals(oriFirstName);
-                   boolean addressUpdated = !updateAddress.equals(oriAddress);
-                   boolean birthdateUpdated = !updateBirthdate.equals(oriBirthdate);
-
-                   //condition 1:If a person is under 18, their address cannot be changed.
-                   if(!birthdateUpdated && age< 18 && addressUpdated) {
-                       return false;
-                   }
-                   //condition 2:If a person's birthday is going to be changed, then no other personal detail (i.e, person's ID, firstName, lastName, address) can be changed.
-                   if(birthdateUpdated && (idUpdated || NameUpdated || addressUpdated)) {
-                       return false;
-                   }
-                   //condition 3:If the first character/digit of a person's ID is an even number, then their ID cannot be changed.
-                   if (idUpdated && isFirstEven(oriId)) {
-                       return false;
-                   }
-                   // if the updated value pass all validation, then add it in to newLine list
-                   String updateLine = String.join(",", updateId, updateFirstName, updateLastName, updateAddress, updateBirthdate, oriDemeritPoints, oriSuspended);
-                   newlines.add(updateLine);
-                   updated = true;
-                   
-                   // Update the current Person object's fields
-                   this.personID = updateId;
-                   this.firstName = updateFirstName;
-                   this.lastName = updateLastName;
-                   this.address = updateAddress;
-                   this.birthdate = updateBirthdate;
-                   
-               }else {
-                   // Keep non-matching lines unchanged
-                   newlines.add(line);
-               }
-           }
-           //if updated is true(means every validation pass) then write it back to txt file.
-           if(updated){
-               Files.write(Paths.get(filePath), newlines);
-           }
+            PersonRecord original = repository.find(personID);
+            if (original == null) {
+                return false;
+            }
+            String oriId = original.personID;
+            String oriFirstName = original.firstName;
+            String oriLastName = original.lastName;
+            String oriAddress = original.address;
+            String oriBirthdate = original.birthdate;
+
+            // allow user input null value(doesn't change), if user decide to keep the original value then keep using the old one
+            String updateId = (newID == null || newID.isEmpty()) ? oriId : newID;
+            String updateFirstName = (newFirstName == null || newFirstName.isEmpty()) ? oriFirstName : newFirstName;
+            String updateLastName = (newLastName == null || newLastName.isEmpty()) ? oriLastName : newLastName;
+            String updateAddress = (newAddress == null || newAddress.isEmpty()) ? oriAddress : newAddress;
+            String updateBirthdate = (newBirthdate == null || newBirthdate.isEmpty()) ? oriBirthdate : newBirthdate;
+
+            //check if the updated value is same as original value, if yes then skip the validation
+            if(!updateId.equals(oriId) && !isValidId(updateId)) {
+                return false;
+            }
+            if(!updateFirstName.equals(oriFirstName) && !isValidName(updateFirstName)){
+                return false;
+            }
+            if(!updateLastName.equals(oriLastName)&& !isValidName(updateLastName)) {
+                return false;
+            }
+            if (!updateAddress.equals(oriAddress) && !isValidAddress(updateAddress)) {
+                return false;
+            }
+            if (!updateBirthdate.equals(oriBirthdate) && !isValidBirthdate(updateBirthdate)) {
+                return false;
+            }
+
+            int age = calculateAge(oriBirthdate);
+
+            //checking if the value is updated, for some condition might need to use
+            boolean idUpdated = !updateId.equals(oriId);
+            boolean NameUpdated = !updateLastName.equals(oriLastName) || !updateFirstName.equals(oriFirstName);
+            boolean addressUpdated = !updateAddress.equals(oriAddress);
+            boolean birthdateUpdated = !updateBirthdate.equals(oriBirthdate);
+
+            //condition 1:If a person is under 18, their address cannot be changed.
+            if(!birthdateUpdated && age< 18 && addressUpdated) {
+                return false;
+            }
+            //condition 2:If a person's birthday is going to be changed, then no other personal detail (i.e, person's ID, firstName, lastName, address) can be changed.
+            if(birthdateUpdated && (idUpdated || NameUpdated || addressUpdated)) {
+                return false;
+            }
+            //condition 3:If the first character/digit of a person's ID is an even number, then their ID cannot be changed.
+            if (idUpdated && isFirstEven(oriId)) {
+                return false;
+            }
+
+            // if the updated value pass all validation, then store it in place of the original record
+            PersonRecord updated = new PersonRecord(updateId, updateFirstName, updateLastName, updateAddress, updateBirthdate,
+                    original.demeritPoints, original.isSuspended);
+            if (!repository.replace(oriId, updated)) {
+                return false;
+            }
 
+            // Update the current Person object's fields
+            this.personID = updateId;
+            this.firstName = updateFirstName;
+            this.lastName = updateLastName;
+            this.address = updateAddress;
+            this.birthdate = updateBirthdate;
 
+            //let the in-memory indexes know about the new details
+            for (RegistryListener listener : repository.listeners()) {
+                listener.personUpdated(oriId, this);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             return false;
         }
 
-        return updated;
+        return true;
     }
 
     /**
@@ -157,16 +188,32 @@ public class Person {
      * @return "Success" if the operation is successful; otherwise "Failed".
      */
     public String addDemeritPoints(String offenseDateStr, int points) {
+        if (!applyDemeritPoints(offenseDateStr, points).equals("Success")) {
+            return "Failed";
+        }
+
+        try {
+            // Record the offense in the repository (appended to demerits.txt by the default file repository)
+            repository.addDemerit(new DemeritRecord(this.personID, offenseDateStr, points));
+        } catch (IOException e) {
+            return "Failed";
+        }
+        notifyDemeritAdded(offenseDateStr, points);
+        return "Success"; // All conditions passed
+    }
+
+    // validates an offense, adds it to demeritPoints and updates isSuspended, without recording it in the repository
+    // (DemeritIngestor records a whole batch of offenses in one write afterwards)
+    String applyDemeritPoints(String offenseDateStr, int points) {
         // Validate offense date format using regex pattern (DD-MM-YYYY)
-        if (!offenseDateStr.matches("\\d{2}-\\d{2}-\\d{4}")) return "Failed";
+        if (!OFFENSE_DATE_PATTERN.matcher(offenseDateStr).matches()) return "Failed";
 
         // Validate that points are within the allowed range (1–6)
         if (points < 1 || points > 6) return "Failed";
 
         try {
-            // Setup date formatter and parse the offense date
-            SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
-            formatter.setLenient(false); // Make parsing strict to reject invalid dates
+            // Get the strict date formatter and parse the offense date
+            SimpleDateFormat formatter = OFFENSE_DATE_FORMAT.get();
             Date offenseDate = formatter.parse(offenseDateStr); // Offense date parsed from input
             
             // Additional validation: ensure the parsed date matches the input string
@@ -178,14 +225,17 @@ public class Person {
             
             Date today = new Date(); // Current system date
 
-            // Add the offense to the internal demeritPoints map
-            this.demeritPoints.put(offenseDate, points);
+            // Load the offenses already recorded for this person, so the total is not computed on partial data
+            HashMap<Date, Integer> history = getDemeritPoints();
+
+            // Add the offense to the internal demeritPoints map, offenses on the same day add up
+            history.merge(offenseDate, points, Integer::sum);
 
             // Calculate total demerit points accrued in the last 2 years
             int totalRecentPoints = 0;
             long twoYearsMillis = 2L * 365 * 24 * 60 * 60 * 1000; // Milliseconds in two years
 
-            for (Map.Entry<Date, Integer> entry : this.demeritPoints.entrySet()) {
+            for (Map.Entry<Date, Integer> entry : history.entrySet()) {
                 long diff = today.getTime() - entry.getKey().getTime(); // Time difference from offense to today
                 // Only include points if the offense occurred within the past 2 years
                 if (diff <= twoYearsMillis && diff >= 0) {
@@ -202,18 +252,43 @@ public class Person {
                 this.isSuspended = true; // Suspend if threshold exceeded
             }
 
-            // Append the offense record to a TXT file named "demerits.txt"
-            try (FileWriter writer = new FileWriter("demerits.txt", true)) { // Use try-with-resources
-                writer.write(this.personID + ", " + offenseDateStr + ", " + points + "\n"); // Log entry
-            }
-
-            return "Success"; // All conditions passed
+            return "Success";
         } catch (Exception e) {
             // Any parsing exception means invalid date or other error
             return "Failed"; // Return failure if any exception occurs
         }
     }
 
+    // lets the in-memory indexes know about a recorded offense
+    void notifyDemeritAdded(String offenseDateStr, int points) {
+        LocalDate offenseDay = LocalDate.parse(offenseDateStr, DATE_FORMATTER);
+        for (RegistryListener listener : repository.listeners()) {
+            listener.demeritAdded(this, offenseDay, points);
+        }
+    }
+
+    /**
+     * Returns the person's demerit points by offense date.
+     * The first call also loads the offenses already recorded in the repository for this person
+     * (for the file repository, only this person's rows are read through the DemeritLog offset index).
+     *
+     * @return the demeritPoints map, including the recorded history
+     */
+    public HashMap<Date, Integer> getDemeritPoints() throws IOException {
+        if (!demeritHistoryLoaded && personID != null) {
+            for (DemeritRecord entry : repository.demerits(personID)) {
+                long day = OffenseTimeSeries.epochDay(entry.offenseDate);
+                if (day == Long.MIN_VALUE) {
+                    continue; // skip rows with an invalid date
+                }
+                Date offenseDate = Date.from(LocalDate.ofEpochDay(day).atStartOfDay(ZoneId.systemDefault()).toInstant());
+                demeritPoints.merge(offenseDate, entry.points, Integer::sum);
+            }
+            demeritHistoryLoaded = true;
+        }
+        return demeritPoints;
+    }
+
     // validation method: pass date and format to Australia format, and caculate the period between this year and birthdate
     public int calculateAge(String date) {
         try{
@@ -234,7 +309,7 @@ public class Person {
             return false;
         }
 
-        if(!id.substring(0,2).matches("[2-9]{2}")){
+        if(!ID_PREFIX_PATTERN.matcher(id.substring(0,2)).matches()){
             return false;
         }
 
@@ -252,7 +327,7 @@ public class Person {
         }
 
         String lastTwoCharPart = id.substring(8);
-        if(!lastTwoCharPart.matches("[A-Z]{2}")){
+        if(!ID_SUFFIX_PATTERN.matcher(lastTwoCharPart).matches()){
             return false;
         }
 
@@ -262,7 +337,7 @@ public class Person {
     //validation method: checking the input name's length should be between 1-50, and only allow char, space, dash, and single quotation,
     //digits not allow
     public boolean isValidName(String name) {
-        return name != null && name.matches("^[\\p{L}\\s'-]{1,50}$");
+        return name != null && NAME_PATTERN.matcher(name).matches();
     }
 
     //validation method: checking the input address fit the requirement: separate by using "|" and state must be victoria
@@ -278,9 +353,9 @@ public class Person {
     //validation method: checking input birthdate is not after the date time right now and the period between birthdate and today doesn't exceed 100 years
     public boolean isValidBirthdate(String birthdate){
         try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-            LocalDate birthdateDate = LocalDate.parse(birthdate, formatter);
-            return !birthdateDate.isAfter(LocalDate.now()) && birthdateDate.isAfter(LocalDate.now().minusYears(100));
+            LocalDate birthdateDate = LocalDate.parse(birthdate, DATE_FORMATTER);
+            LocalDate today = LocalDate.now();
+            return !birthdateDate.isAfter(today) && birthdateDate.isAfter(today.minusYears(100));
         }catch (Exception e){
             return false;
         }
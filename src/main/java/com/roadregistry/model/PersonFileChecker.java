@@ -0,0 +1,374 @@
+package com.roadregistry.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The PersonFileChecker checks every row of a person file in parallel.
+ * The file is split into byte ranges that end on a newline, and each range is checked on its own thread.
+ * Bad rows are collected into a report, and can optionally be moved out of the file into a quarantine file
+ * so that updatePersonalDetails keeps working on the good rows.
+ */
+public class PersonFileChecker {
+
+    // the reasons a row can be reported, only the first failing check of a row is reported
+    public enum Problem {
+        FIELD_COUNT, INVALID_ID, INVALID_FIRST_NAME, INVALID_LAST_NAME, INVALID_ADDRESS,
+        INVALID_BIRTHDATE, INVALID_DEMERIT_POINTS, INVALID_SUSPENDED, DUPLICATE_ID
+    }
+
+    /**
+     * A single bad row found in the file.
+     */
+    public static class BadRow {
+        public final long offset;     // byte offset of the start of the row
+        public final int length;      // byte length of the row, not counting the newline
+        public final long lineNumber; // 1-based line number
+        public final Problem problem;
+        public final String line;
+
+        BadRow(long offset, int length, long lineNumber, Problem problem, String line) {
+            this.offset = offset;
+            this.length = length;
+            this.lineNumber = lineNumber;
+            this.problem = problem;
+            this.line = line;
+        }
+    }
+
+    /**
+     * The result of checking a file: the number of rows checked and the bad rows in file order.
+     */
+    public static class Report {
+        public final long rowCount;
+        public final List<BadRow> badRows;
+
+        Report(long rowCount, List<BadRow> badRows) {
+            this.rowCount = rowCount;
+            this.badRows = badRows;
+        }
+
+        public boolean isClean() {
+            return badRows.isEmpty();
+        }
+
+        // writes one line per bad row in the format: line number,byte offset,problem,original row
+        public void write(Path reportFile) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+                for (BadRow row : badRows) {
+                    writer.write(row.lineNumber + "," + row.offset + "," + row.problem + "," + row.line);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private static final int MIN_CHUNK_SIZE = 1 << 20;   // 1 MB
+    private static final int MAX_CHUNK_SIZE = 64 << 20;  // 64 MB
+
+    private final int threads;
+    private final Person validator = new Person(); // the validation methods do not use any object state
+
+    public PersonFileChecker() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PersonFileChecker(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Checks every row of the given file.
+     *
+     * @param file the person file, in the format ID,FirstName,LastName,Address,Birthday,DemeritPoints,IsSuspended
+     * @return the report of bad rows
+     */
+    public Report check(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> ranges = split(channel);
+            List<Chunk> chunks = new ArrayList<>();
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, ranges.size())));
+            try {
+                List<Future<Chunk>> futures = new ArrayList<>();
+                for (long[] range : ranges) {
+                    futures.add(pool.submit(() -> checkRange(channel, range[0], range[1])));
+                }
+                for (Future<Chunk> future : futures) {
+                    chunks.add(future.get());
+                }
+            } catch (Exception e) {
+                throw new IOException("Failed to check " + file, e);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            return merge(channel, chunks);
+        }
+    }
+
+    /**
+     * Moves the bad rows of a report out of the file and appends them to the quarantine file.
+     * The good rows are copied byte for byte into a new file that then replaces the original.
+     *
+     * @param file           the file that was checked
+     * @param report         the report returned by check for that file
+     * @param quarantineFile the file the bad rows are appended to
+     */
+    public void quarantine(Path file, Report report, Path quarantineFile) throws IOException {
+        if (report.isClean()) {
+            return;
+        }
+        List<BadRow> rows = new ArrayList<>(report.badRows);
+        rows.sort(Comparator.comparingLong(row -> row.offset));
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter quarantined = Files.newBufferedWriter(quarantineFile, StandardCharsets.UTF_8,
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            long size = in.size();
+            for (BadRow row : rows) {
+                transfer(in, position, row.offset - position, out);
+                quarantined.write(row.line);
+                quarantined.newLine();
+                // skip the row and its line ending
+                position = Math.min(size, row.offset + row.length + 1);
+            }
+            transfer(in, position, size - position, out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // splits the file into ranges of roughly equal size, each range ends just after a newline
+    private List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (threads * 4L) + 1));
+        List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            if (end < size) {
+                end = nextLineStart(channel, end, size);
+            }
+            ranges.add(new long[]{start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    // returns the offset just after the first newline at or after position, or size if there is none
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        long newline = findNewline(channel, position, size);
+        return newline < size ? newline + 1 : size;
+    }
+
+    // returns the offset of the first newline at or after position, or size if there is none
+    private static long findNewline(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // checks one range on its own, duplicate ids across ranges are found later in merge
+    private Chunk checkRange(FileChannel channel, long start, long end) throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (start + buffer.position()));
+            }
+        }
+
+        Chunk chunk = new Chunk();
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int length = lineEnd - lineStart;
+            int textLength = (length > 0 && bytes[lineEnd - 1] == '\r') ? length - 1 : length;
+            String line = new String(bytes, lineStart, textLength, StandardCharsets.UTF_8);
+
+            String[] parts = line.split(",");
+            long offset = start + lineStart;
+            if (parts.length != 7) {
+                chunk.add(offset, 0);
+                chunk.bad.add(new BadRow(offset, length, 0, Problem.FIELD_COUNT, line));
+            } else {
+                String id = parts[0].trim();
+                chunk.add(offset, hash(id));
+                Problem problem = validate(parts);
+                if (problem != null) {
+                    chunk.bad.add(new BadRow(offset, length, 0, problem, line));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    // runs the existing Person validators over the fields of a row, returns null if the row is valid
+    private Problem validate(String[] parts) {
+        String id = parts[0].trim();
+        if (id.length() != 10 || !validator.isValidId(id)) {
+            return Problem.INVALID_ID;
+        }
+        if (!validator.isValidName(parts[1].trim())) {
+            return Problem.INVALID_FIRST_NAME;
+        }
+        if (!validator.isValidName(parts[2].trim())) {
+            return Problem.INVALID_LAST_NAME;
+        }
+        if (!validator.isValidAddress(parts[3].trim())) {
+            return Problem.INVALID_ADDRESS;
+        }
+        if (!validator.isValidBirthdate(parts[4].trim())) {
+            return Problem.INVALID_BIRTHDATE;
+        }
+        try {
+            if (Integer.parseInt(parts[5].trim()) < 0) {
+                return Problem.INVALID_DEMERIT_POINTS;
+            }
+        } catch (NumberFormatException e) {
+            return Problem.INVALID_DEMERIT_POINTS;
+        }
+        String suspended = parts[6].trim();
+        if (!suspended.equals("true") && !suspended.equals("false")) {
+            return Problem.INVALID_SUSPENDED;
+        }
+        return null;
+    }
+
+    // joins the chunk results in file order, fixes up line numbers and finds duplicate ids.
+    // Every row only keeps a 64 bit hash of its id, rows whose hash is seen more than once are re-read
+    // from the file to compare the real ids, so the full set of ids never has to be held in memory.
+    private Report merge(FileChannel channel, List<Chunk> chunks) throws IOException {
+        long rowCount = 0;
+        for (Chunk chunk : chunks) {
+            rowCount += chunk.rows;
+        }
+
+        long[] sorted = new long[(int) rowCount];
+        int next = 0;
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.hashes, 0, sorted, next, chunk.rows);
+            next += chunk.rows;
+        }
+        Arrays.parallelSort(sorted);
+        Set<Long> repeatedHashes = new HashSet<>();
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != 0 && sorted[i] == sorted[i - 1]) {
+                repeatedHashes.add(sorted[i]);
+            }
+        }
+
+        List<BadRow> badRows = new ArrayList<>();
+        Map<String, Long> firstSeen = new HashMap<>();
+        long firstLine = 1;
+        for (Chunk chunk : chunks) {
+            Iterator<BadRow> bad = chunk.bad.iterator();
+            BadRow nextBad = bad.hasNext() ? bad.next() : null;
+            for (int i = 0; i < chunk.rows; i++) {
+                long lineNumber = firstLine + i;
+                boolean alreadyBad = nextBad != null && nextBad.offset == chunk.offsets[i];
+                if (alreadyBad) {
+                    badRows.add(new BadRow(nextBad.offset, nextBad.length, lineNumber, nextBad.problem, nextBad.line));
+                }
+                // a row that failed validation is quarantined anyway, so it never claims the id from a later valid row
+                if (!alreadyBad && chunk.hashes[i] != 0 && repeatedHashes.contains(chunk.hashes[i])) {
+                    long offset = chunk.offsets[i];
+                    int length = (int) (findNewline(channel, offset, channel.size()) - offset);
+                    String line = readLine(channel, offset, length);
+                    String id = line.split(",")[0].trim();
+                    if (firstSeen.putIfAbsent(id, offset) != null) {
+                        badRows.add(new BadRow(offset, length, lineNumber, Problem.DUPLICATE_ID, line));
+                    }
+                }
+                if (alreadyBad) {
+                    nextBad = bad.hasNext() ? bad.next() : null;
+                }
+            }
+            firstLine += chunk.rows;
+        }
+        return new Report(rowCount, badRows);
+    }
+
+    // reads length bytes of the row that starts at offset, without a trailing carriage return
+    private static String readLine(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+            // keep reading until the whole row is in the buffer
+        }
+        int textLength = buffer.position();
+        if (textLength > 0 && buffer.get(textLength - 1) == '\r') {
+            textLength--;
+        }
+        return new String(buffer.array(), 0, textLength, StandardCharsets.UTF_8);
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long written = in.transferTo(position, count, out);
+            position += written;
+            count -= written;
+        }
+    }
+
+    // 64 bit FNV-1a hash of the id, 0 is kept free to mark rows without an id
+    private static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    // the result of checking one range: the offset and id hash of every row, and the rows that failed validation
+    private static class Chunk {
+        long[] offsets = new long[1024];
+        long[] hashes = new long[1024];
+        int rows;
+        final List<BadRow> bad = new ArrayList<>();
+
+        void add(long offset, long hash) {
+            if (rows == offsets.length) {
+                offsets = Arrays.copyOf(offsets, rows * 2);
+                hashes = Arrays.copyOf(hashes, rows * 2);
+            }
+            offsets[rows] = offset;
+            hashes[rows] = hash;
+            rows++;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.roadregistry.model;
+
+/**
+ * A PersonRecord is one stored row of person data, as kept by a PersonRepository.
+ * Records are immutable, an update stores a new record in place of the old one.
+ */
+public final class PersonRecord {
+    public final String personID;
+    public final String firstName;
+    public final String lastName;
+    public final String address;
+    public final String birthdate; // "dd-MM-yyyy"
+    public final int demeritPoints;
+    public final boolean isSuspended;
+
+    public PersonRecord(String personID, String firstName, String lastName, String address, String birthdate,
+                        int demeritPoints, boolean isSuspended) {
+        this.personID = personID;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.address = address;
+        this.birthdate = birthdate;
+        this.demeritPoints = demeritPoints;
+        this.isSuspended = isSuspended;
+    }
+
+    /**
+     * Parses a row in the format ID,FirstName,LastName,Address,Birthday,DemeritPoints,IsSuspended.
+     *
+     * @return the record, or null if the row does not fit the format
+     */
+    public static PersonRecord parse(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 7) {
+            return null;
+        }
+        try {
+            return new PersonRecord(parts[0].trim(), parts[1].trim(), parts[2].trim(), parts[3].trim(), parts[4].trim(),
+                    Integer.parseInt(parts[5].trim()), Boolean.parseBoolean(parts[6].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // this record with the points added to its total, and suspended if it was already or suspend is true
+    public PersonRecord withDemerits(int points, boolean suspend) {
+        return new PersonRecord(personID, firstName, lastName, address, birthdate, demeritPoints + points, isSuspended || suspend);
+    }
+
+    public String toLine() {
+        return String.join(",", personID, firstName, lastName, address, birthdate,
+                String.valueOf(demeritPoints), String.valueOf(isSuspended));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PersonRecord)) {
+            return false;
+        }
+        return toLine().equals(((PersonRecord) o).toLine());
+    }
+
+    @Override
+    public int hashCode() {
+        return toLine().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
@@ -0,0 +1,447 @@
+package com.roadregistry.model;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static com.roadregistry.model.ReplicatedPersonRepository.fields;
+import static com.roadregistry.model.ReplicatedPersonRepository.message;
+
+/**
+ * A PersonReplica follows a ReplicatedPersonRepository in another process. It applies the primary's mutation log,
+ * in order, to its own in-memory copy of the registry and serves reads from that copy, so lookups and exports can
+ * be spread over several processes. Writes are refused until the replica is promoted.
+ * Only a replica connected with storage of its own, such as a FilePersonRepository, can be promoted: the copy is
+ * written to that storage and the new primary keeps its records there, so they outlive the process.
+ *
+ * Lag is the time since the copy last matched the primary's newest offset (heartbeats arrive every
+ * HEARTBEAT_MILLIS), and reads are refused with an IllegalStateException once it is over the bound given to
+ * connect, such as when the primary has gone away. If the connection drops, the replica reconnects and carries
+ * on from its applied offset. When it follows a different primary, the offset only carries over if the primary's
+ * log is the one the copy came from (has the same epoch), otherwise the replica is sent a snapshot.
+ *
+ * Listeners are told about each streamed entry as it is applied, so the indexes of a RegistryServer on a replica
+ * stay up to date. A full snapshot, sent when the replica first connects or is too far behind the primary's kept
+ * entries, replaces the copy and then has each listener reload from the new copy.
+ */
+public class PersonReplica implements PersonRepository, AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10 * (int) ReplicatedPersonRepository.HEARTBEAT_MILLIS;
+    private static final long RECONNECT_MILLIS = 100;
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final Duration maxLag;
+    private final PersonRepository storage;     // where a promoted replica keeps its records, or null
+    private final List<RegistryListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Thread follower;           // set by connect before the replica is handed out
+    private volatile InMemoryPersonRepository copy = new InMemoryPersonRepository();
+    private volatile String host;
+    private volatile int port;
+    private volatile Socket socket;
+    private volatile boolean stopped;
+    private volatile long epoch;                // epoch of the log the copy came from, 0 until the first snapshot
+    private volatile long applied = -1;         // offset of the last entry in the copy, -1 until the first snapshot
+    private volatile long primaryOffset;        // newest offset the primary has reported
+    private volatile long caughtUpAt = NEVER;   // System.nanoTime() when the copy last matched primaryOffset
+    private volatile ReplicatedPersonRepository promoted;
+
+    private PersonReplica(String host, int port, Duration maxLag, PersonRepository storage) {
+        this.host = host;
+        this.port = port;
+        this.maxLag = maxLag;
+        this.storage = storage;
+    }
+
+    /**
+     * Starts a replica following the primary whose replication port is given, which cannot be promoted.
+     * Reads are refused until the replica has caught up, see awaitCaughtUp.
+     *
+     * @param maxLag how far behind the primary the replica may be and still serve reads
+     */
+    public static PersonReplica connect(String host, int port, Duration maxLag) {
+        return connect(host, port, maxLag, null);
+    }
+
+    /**
+     * Starts a replica following the primary whose replication port is given, which can be promoted.
+     *
+     * @param maxLag  how far behind the primary the replica may be and still serve reads
+     * @param storage empty storage that the copy is written to if the replica is promoted, or null
+     */
+    public static PersonReplica connect(String host, int port, Duration maxLag, PersonRepository storage) {
+        PersonReplica replica = new PersonReplica(host, port, maxLag, storage);
+        // the thread is started once the replica is constructed, so it never sees a partly built one
+        Thread follower = new Thread(replica::follow, "person-replica");
+        follower.setDaemon(true);
+        replica.follower = follower;
+        follower.start();
+        return replica;
+    }
+
+    // the epoch of the log the copy came from, 0 before the first snapshot
+    public long epoch() {
+        return epoch;
+    }
+
+    // the offset of the last applied entry, which a promoted replica carries on from, -1 before the first snapshot
+    public long appliedOffset() {
+        return applied;
+    }
+
+    // the number of entries the primary had reported that are not applied yet
+    public long lagEntries() {
+        return promoted != null || applied < 0 ? 0 : Math.max(0, primaryOffset - applied);
+    }
+
+    /**
+     * Returns the milliseconds since the copy last matched the primary, 0 once promoted,
+     * or Long.MAX_VALUE if it has never caught up.
+     */
+    public long lagMillis() {
+        if (promoted != null) {
+            return 0;
+        }
+        long at = caughtUpAt;
+        return at == NEVER ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - at);
+    }
+
+    public boolean isPromoted() {
+        return promoted != null;
+    }
+
+    // the primary this replica became when it was promoted, or null
+    public ReplicatedPersonRepository getPromoted() {
+        return promoted;
+    }
+
+    /**
+     * Waits until the replica is within its lag bound.
+     *
+     * @return true if it caught up before the timeout
+     */
+    public boolean awaitCaughtUp(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (lagMillis() > maxLag.toMillis()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return true;
+    }
+
+    /**
+     * Follows a different primary, such as a promoted replica. Unless the new primary carries on the log this
+     * replica has applied, it is sent a full snapshot that replaces the copy.
+     *
+     * @throws IllegalStateException if this replica has been promoted
+     */
+    public synchronized void follow(String host, int port) {
+        if (promoted != null) {
+            throw new IllegalStateException("A promoted replica does not follow another primary");
+        }
+        this.host = host;
+        this.port = port;
+        disconnect(); // the follower reconnects to the new address
+    }
+
+    /**
+     * Stops following and makes this replica a primary whose log carries on from the last applied offset,
+     * so other replicas can follow it and writes are accepted. Entries the old primary had not sent are lost.
+     * The new log's epoch is one more than the old primary's, so replicas of the old primary are sent a snapshot
+     * when they follow this one. Promote one replica per failover, as two promoted from the same log share an epoch.
+     *
+     * @param port the port replicas connect to, 0 to pick a free port
+     * @return the new primary, which stores its records in the storage given to connect
+     * @throws IllegalStateException if the replica has no storage, its storage already holds records,
+     *                               or it has not received a snapshot yet
+     */
+    public synchronized ReplicatedPersonRepository promote(int port) throws IOException {
+        if (promoted == null) {
+            if (storage == null) {
+                throw new IllegalStateException("The replica has no storage of its own to be promoted with");
+            }
+            List<PersonRecord> stored = new ArrayList<>();
+            storage.forEach(stored::add);
+            if (!stored.isEmpty()) {
+                throw new IllegalStateException("The replica's storage already holds records");
+            }
+            if (applied < 0) {
+                throw new IllegalStateException("The replica has no copy of the registry to promote");
+            }
+            stopFollowing();
+            // the follower has stopped, so the copy no longer changes while it is written out
+            List<PersonRecord> people = new ArrayList<>();
+            copy.forEach(people::add);
+            for (PersonRecord record : people) {
+                storage.add(record);
+            }
+            List<DemeritRecord> demerits = new ArrayList<>();
+            copy.forEachDemerit(demerits::add);
+            storage.addDemerits(demerits);
+            promoted = new ReplicatedPersonRepository(storage, epoch + 1, applied, port);
+            copy = new InMemoryPersonRepository();
+        }
+        return promoted;
+    }
+
+    @Override
+    public PersonRecord find(String personID) throws IOException {
+        return readable().find(personID);
+    }
+
+    @Override
+    public void forEach(Consumer<PersonRecord> action) throws IOException {
+        readable().forEach(action);
+    }
+
+    @Override
+    public List<DemeritRecord> demerits(String personID) throws IOException {
+        return readable().demerits(personID);
+    }
+
+    @Override
+    public void forEachDemerit(Consumer<DemeritRecord> action) throws IOException {
+        readable().forEachDemerit(action);
+    }
+
+    @Override
+    public boolean add(PersonRecord record) throws IOException {
+        return writable().add(record);
+    }
+
+    @Override
+    public boolean replace(String personID, PersonRecord record) throws IOException {
+        return writable().replace(personID, record);
+    }
+
+    @Override
+    public List<PersonRecord> updateTotals(Map<String, Integer> points, Set<String> suspended) throws IOException {
+        return writable().updateTotals(points, suspended);
+    }
+
+    @Override
+    public void addDemerit(DemeritRecord record) throws IOException {
+        writable().addDemerit(record);
+    }
+
+    @Override
+    public void addDemerits(List<DemeritRecord> records) throws IOException {
+        writable().addDemerits(records);
+    }
+
+    @Override
+    public List<RegistryListener> listeners() {
+        return listeners;
+    }
+
+    /**
+     * Stops following the primary, or stops serving replicas if this replica was promoted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        stopFollowing();
+        if (promoted != null) {
+            promoted.close();
+        }
+    }
+
+    private PersonRepository readable() {
+        ReplicatedPersonRepository primary = promoted;
+        if (primary != null) {
+            return primary;
+        }
+        long lag = lagMillis();
+        if (lag > maxLag.toMillis()) {
+            throw new IllegalStateException(lag == Long.MAX_VALUE ? "The replica has not caught up with the primary yet"
+                    : "The replica is " + lag + " ms behind the primary");
+        }
+        return copy;
+    }
+
+    private ReplicatedPersonRepository writable() {
+        ReplicatedPersonRepository primary = promoted;
+        if (primary == null) {
+            throw new UnsupportedOperationException("The replica is read-only until it is promoted");
+        }
+        return primary;
+    }
+
+    private void stopFollowing() {
+        stopped = true;
+        disconnect();
+        boolean interrupted = false;
+        while (follower.isAlive()) {
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void disconnect() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // closing is all that is wanted
+            }
+        }
+    }
+
+    private void follow() {
+        while (!stopped) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                // stopFollowing sets stopped before it reads socket, so one of the two sees the other
+                if (stopped) {
+                    break;
+                }
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                // heartbeats keep coming while the primary is up, so a silent connection is a dead one
+                connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                Writer writer = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
+                writer.write(message("FOLLOW", String.valueOf(epoch), String.valueOf(applied)) + "\n");
+                writer.flush();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    receive(fields(line), reader);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the primary is down, has moved or sent something unreadable, the next connection starts from applied
+            }
+            socket = null;
+            if (!stopped) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RECONNECT_MILLIS));
+            }
+        }
+    }
+
+    private void receive(String[] message, BufferedReader reader) throws IOException {
+        switch (message[0]) {
+            case "SNAPSHOT" -> {
+                InMemoryPersonRepository loaded = new InMemoryPersonRepository();
+                String[] row;
+                while (!(row = fields(readLine(reader)))[0].equals("END")) {
+                    if (row[0].equals("PERSON")) {
+                        PersonRecord record = PersonRecord.parse(row[1]);
+                        if (record != null) {
+                            loaded.add(record);
+                        }
+                    } else if (row[0].equals("DEMERIT")) {
+                        DemeritRecord record = DemeritRecord.parse(row[1]);
+                        if (record != null) {
+                            loaded.addDemerit(record);
+                        }
+                    } else if (row[0].equals("TRIM")) {
+                        loaded.keepDemerits(row[1], Integer.parseInt(row[2]));
+                    }
+                }
+                copy = loaded;
+                epoch = Long.parseLong(message[1]);
+                applied = Long.parseLong(message[2]);
+                // entries from here on are applied to the new copy, so the indexes start from it too
+                for (RegistryListener listener : listeners) {
+                    listener.reloaded(loaded);
+                }
+            }
+            case "ENTRY" -> {
+                checkEpoch(message);
+                long offset = Long.parseLong(message[2]);
+                if (offset != applied + 1) {
+                    throw new IOException("Expected entry " + (applied + 1) + " but the primary sent " + offset);
+                }
+                apply(message);
+                applied = offset;
+            }
+            case "HEARTBEAT" -> {
+                checkEpoch(message);
+                primaryOffset = Long.parseLong(message[2]);
+                if (applied >= primaryOffset) {
+                    caughtUpAt = System.nanoTime();
+                }
+            }
+            default -> throw new IOException("Unknown replication message " + message[0]);
+        }
+    }
+
+    // a primary sends a snapshot before anything of a log the copy did not come from
+    private void checkEpoch(String[] message) throws IOException {
+        if (Long.parseLong(message[1]) != epoch) {
+            throw new IOException("The primary sent epoch " + message[1] + " but the copy is from epoch " + epoch);
+        }
+    }
+
+    // applies one entry to the copy and tells the listeners, like Person does on the primary
+    private void apply(String[] entry) {
+        InMemoryPersonRepository target = copy;
+        switch (entry[3]) {
+            case "ADD" -> {
+                PersonRecord record = PersonRecord.parse(entry[4]);
+                if (record != null && target.add(record)) {
+                    Person person = person(record);
+                    for (RegistryListener listener : listeners) {
+                        listener.personAdded(person);
+                    }
+                }
+            }
+            case "REPLACE" -> {
+                PersonRecord record = PersonRecord.parse(entry[5]);
+                if (record != null && target.replace(entry[4], record)) {
+                    Person person = person(record);
+                    for (RegistryListener listener : listeners) {
+                        listener.personUpdated(entry[4], person);
+                    }
+                }
+            }
+            case "DEMERIT" -> {
+                DemeritRecord record = DemeritRecord.parse(entry[4]);
+                if (record != null) {
+                    target.addDemerit(record);
+                    PersonRecord owner = target.find(record.personID);
+                    if (owner != null && OffenseTimeSeries.epochDay(record.offenseDate) != Long.MIN_VALUE) {
+                        person(owner).notifyDemeritAdded(record.offenseDate, record.points);
+                    }
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown entry type " + entry[3]);
+        }
+    }
+
+    private Person person(PersonRecord record) {
+        Person person = new Person(this);
+        person.personID = record.personID;
+        person.firstName = record.firstName;
+        person.lastName = record.lastName;
+        person.address = record.address;
+        person.birthdate = record.birthdate;
+        person.isSuspended = record.isSuspended;
+        return person;
+    }
+
+    private static String readLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new EOFException("The primary closed the connection during a snapshot");
+        }
+        return line;
+    }
+}
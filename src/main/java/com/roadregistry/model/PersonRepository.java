@@ -0,0 +1,89 @@
+package com.roadregistry.model;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A PersonRepository stores the person records and offenses behind Person's addPerson,
+ * updatePersonalDetails and addDemeritPoints. FilePersonRepository keeps them in the text files,
+ * InMemoryPersonRepository keeps them in concurrent maps.
+ * Each repository also has its own listeners, so indexes for one registry are not told about another.
+ */
+public interface PersonRepository {
+
+    /**
+     * Returns the first record with the given ID, or null if there is none.
+     */
+    PersonRecord find(String personID) throws IOException;
+
+    /**
+     * Stores a new record unless a record with the same ID is already stored.
+     *
+     * @return false if the ID is already taken, in which case nothing is stored
+     */
+    boolean add(PersonRecord record) throws IOException;
+
+    /**
+     * Replaces the first record with the given ID, the new record may have a different ID.
+     *
+     * @return false if there is no record with the given ID, or the new ID is already another record's,
+     *         in which case nothing is changed
+     */
+    boolean replace(String personID, PersonRecord record) throws IOException;
+
+    /**
+     * Adds each person's points to their stored demerit points and marks the given people as suspended, reading
+     * and writing each record under the repository's lock, in one write where the repository can.
+     * People with no stored record are skipped.
+     *
+     * @param points    the points to add by person ID
+     * @param suspended the IDs of the people to mark as suspended, all of them keys of points
+     * @return the updated records
+     */
+    List<PersonRecord> updateTotals(Map<String, Integer> points, Set<String> suspended) throws IOException;
+
+    /**
+     * Passes every record to the action.
+     */
+    void forEach(Consumer<PersonRecord> action) throws IOException;
+
+    /**
+     * Records an offense.
+     */
+    void addDemerit(DemeritRecord record) throws IOException;
+
+    /**
+     * Records several offenses, in order. Repositories that can store them in one write do so.
+     */
+    default void addDemerits(List<DemeritRecord> records) throws IOException {
+        for (DemeritRecord record : records) {
+            addDemerit(record);
+        }
+    }
+
+    /**
+     * Returns the offenses recorded for a person, in the order they were recorded.
+     */
+    List<DemeritRecord> demerits(String personID) throws IOException;
+
+    /**
+     * Passes every recorded offense to the action.
+     */
+    void forEachDemerit(Consumer<DemeritRecord> action) throws IOException;
+
+    /**
+     * The listeners told about changes made through Person objects using this repository.
+     */
+    List<RegistryListener> listeners();
+
+    default void addListener(RegistryListener listener) {
+        listeners().add(listener);
+    }
+
+    default void removeListener(RegistryListener listener) {
+        listeners().remove(listener);
+    }
+}
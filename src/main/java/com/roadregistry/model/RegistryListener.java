@@ -0,0 +1,46 @@
+package com.roadregistry.model;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * A RegistryListener is told about every change Person makes to a PersonRepository,
+ * so that in-memory indexes can be kept up to date without scanning the repository again.
+ * Listeners are registered with PersonRepository.addListener and are called on the thread that made the change.
+ */
+public interface RegistryListener {
+
+    /**
+     * Called after a person has been stored by addPerson.
+     */
+    default void personAdded(Person person) {
+    }
+
+    /**
+     * Called after updatePersonalDetails has stored a person's new details.
+     *
+     * @param oldID  the ID the person had before the update
+     * @param person the person with the updated details
+     */
+    default void personUpdated(String oldID, Person person) {
+    }
+
+    /**
+     * Called after an offense has been recorded.
+     *
+     * @param person      the person the offense was recorded for
+     * @param offenseDate the date of the offense
+     * @param points      the demerit points of the offense
+     */
+    default void demeritAdded(Person person, LocalDate offenseDate, int points) {
+    }
+
+    /**
+     * Called after the whole registry has been replaced at once, such as when a PersonReplica loads a snapshot,
+     * so what the listener keeps has to be built again.
+     *
+     * @param repository the new records, readable during the call
+     */
+    default void reloaded(PersonRepository repository) throws IOException {
+    }
+}
@@ -0,0 +1,444 @@
+package com.roadregistry.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The RegistryServer exposes the Person operations over HTTP/JSON so that a single process owns a PersonRepository.
+ * Every request runs on its own virtual thread. Connections are kept alive, so clients can pipeline requests,
+ * and bulk lookups are streamed back as one JSON object per line while the repository is being read.
+ *
+ * <pre>
+ * POST /persons                   add a person, body: personID, firstName, lastName, address, birthdate
+ * GET  /persons/{id}?asOf=        look up a person, optionally as they were at the end of a dd-MM-yyyy date
+ * GET  /persons?ids=id1,id2       stream the listed people (or everyone without ids) as newline-delimited JSON
+ * PUT  /persons/{id}              update a person, body: newID, firstName, lastName, address, birthdate (all optional)
+ * POST /persons/{id}/demerits     add demerit points, body: offenseDate, points
+ * GET  /offenses?from=&to=        offense count and points between two dd-MM-yyyy dates, optionally for a postcode
+ * GET  /search?name=&limit=       person IDs with names like the given one, best match first
+ * GET  /replication               role (primary, replica or standalone), log offset and replica lag
+ * POST /replication/promote?port= make a replica the primary, replicas connect to the given port (0 for any),
+ *                                 409 if the replica was not given storage of its own
+ * POST /replication/follow?host=&port=  make a replica follow another primary
+ * </pre>
+ *
+ * With a VersionedPersonRepository, directly or under a ReplicatedPersonRepository, bulk lookups are read from a
+ * snapshot, so a long export sees one consistent registry while updates carry on, and asOf lookups are answered
+ * from the kept versions.
+ * With a PersonReplica, changes are refused with 403 until it is promoted, and reads with 503 while it lags.
+ */
+public class RegistryServer {
+
+    private static final int FLUSH_EVERY = 256; // rows written between flushes of a streamed response
+    private static final int INGEST_CAPACITY = 1 << 16; // offenses that can wait to be recorded
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final PersonRepository repository;
+    // updatePersonalDetails checks the stored record and then replaces it, so writers are serialised to keep that atomic.
+    // Readers never take the lock, the repositories only ever expose whole records
+    private final Lock writeLock = new ReentrantLock();
+    // offenses from concurrent requests are checked and recorded in batches, which also keeps each person's history
+    private final DemeritIngestor ingestor;
+    private final OffenseTimeSeries offenses;
+    private final NameSearchIndex names;
+
+    /**
+     * Creates a server for person.txt and demerits.txt in the working directory, use port 0 to pick a free port.
+     */
+    public RegistryServer(int port) throws IOException {
+        this(port, Person.defaultRepository());
+    }
+
+    /**
+     * Creates a server for the given repository, use port 0 to pick a free port.
+     */
+    public RegistryServer(int port, PersonRepository repository) throws IOException {
+        this(port, repository, null);
+    }
+
+    /**
+     * Creates a server whose offense totals also count the offenses in the repository's archive.
+     *
+     * @param archive the archive offenses are moved to, or null
+     */
+    public RegistryServer(int port, PersonRepository repository, DemeritArchive archive) throws IOException {
+        this.repository = repository;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/persons", this::handle);
+        server.createContext("/offenses", this::handleOffenses);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/replication", this::handleReplication);
+        offenses = OffenseTimeSeries.load(repository, archive, true);
+        ingestor = new DemeritIngestor(repository, INGEST_CAPACITY, DemeritIngestor.MAX_CACHED, writeLock);
+        names = NameSearchIndex.load(repository);
+    }
+
+    public void start() {
+        repository.addListener(offenses);
+        repository.addListener(names);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.close();
+        ingestor.close();
+        repository.removeListener(offenses);
+        repository.removeListener(names);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                route(exchange);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+            } catch (IllegalStateException e) {
+                // a replica that has fallen too far behind
+                send(exchange, 503, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        List<String> segments = segments(exchange.getRequestURI().getRawPath());
+        PersonReplica replica = layer(PersonReplica.class);
+        if (!method.equals("GET") && replica != null && !replica.isPromoted()) {
+            send(exchange, 403, "{\"error\":\"This replica is read-only\"}");
+            return;
+        }
+
+        if (segments.isEmpty() && method.equals("GET")) {
+            lookupAll(exchange);
+        } else if (segments.isEmpty() && method.equals("POST")) {
+            addPerson(exchange);
+        } else if (segments.size() == 1 && method.equals("GET")) {
+            lookup(exchange, segments.get(0));
+        } else if (segments.size() == 1 && method.equals("PUT")) {
+            updatePerson(exchange, segments.get(0));
+        } else if (segments.size() == 2 && segments.get(1).equals("demerits") && method.equals("POST")) {
+            addDemeritPoints(exchange, segments.get(0));
+        } else {
+            send(exchange, 404, "{\"error\":\"Not found\"}");
+        }
+    }
+
+    private void handleOffenses(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+            long from = OffenseTimeSeries.epochDay(parameters.getOrDefault("from", ""));
+            long to = OffenseTimeSeries.epochDay(parameters.getOrDefault("to", ""));
+            if (!exchange.getRequestMethod().equals("GET") || from == Long.MIN_VALUE || to == Long.MIN_VALUE) {
+                send(exchange, 400, "{\"error\":\"GET with from and to dates in dd-MM-yyyy format is required\"}");
+                return;
+            }
+            LocalDate fromDate = LocalDate.ofEpochDay(from);
+            LocalDate toDate = LocalDate.ofEpochDay(to);
+            String postcode = parameters.get("postcode");
+            long count = postcode == null ? offenses.count(fromDate, toDate) : offenses.count(postcode, fromDate, toDate);
+            long points = postcode == null ? offenses.points(fromDate, toDate) : offenses.points(postcode, fromDate, toDate);
+            send(exchange, 200, "{\"count\":" + count + ",\"points\":" + points + "}");
+        }
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+            String name = parameters.get("name");
+            if (!exchange.getRequestMethod().equals("GET") || name == null) {
+                send(exchange, 400, "{\"error\":\"GET with a name is required\"}");
+                return;
+            }
+            int limit;
+            try {
+                limit = Integer.parseInt(parameters.getOrDefault("limit", "10"));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, "{\"error\":\"limit must be a whole number\"}");
+                return;
+            }
+            StringJoiner ids = new StringJoiner(",", "{\"personIDs\":[", "]}");
+            for (String id : names.search(name, limit)) {
+                ids.add(Json.quote(id));
+            }
+            send(exchange, 200, ids.toString());
+        }
+    }
+
+    private void handleReplication(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+            PersonReplica replica = layer(PersonReplica.class);
+            try {
+                if (path.equals("/replication") && method.equals("GET")) {
+                    send(exchange, 200, replicationStatus());
+                } else if (path.equals("/replication/promote") && method.equals("POST") && replica != null) {
+                    replica.promote(Integer.parseInt(parameters.getOrDefault("port", "0")));
+                    send(exchange, 200, replicationStatus());
+                } else if (path.equals("/replication/follow") && method.equals("POST") && replica != null
+                        && parameters.containsKey("host") && parameters.containsKey("port")) {
+                    replica.follow(parameters.get("host"), Integer.parseInt(parameters.get("port")));
+                    send(exchange, 200, "{\"result\":true}");
+                } else {
+                    send(exchange, 404, "{\"error\":\"Not found\"}");
+                }
+            } catch (NumberFormatException e) {
+                send(exchange, 400, "{\"error\":\"port must be a whole number\"}");
+            } catch (IllegalStateException e) {
+                send(exchange, 409, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+            }
+        }
+    }
+
+    private String replicationStatus() {
+        PersonReplica replica = layer(PersonReplica.class);
+        ReplicatedPersonRepository primary = replica != null ? replica.getPromoted() : layer(ReplicatedPersonRepository.class);
+        if (primary != null) {
+            return "{\"role\":\"primary\",\"epoch\":" + primary.epoch() + ",\"offset\":" + primary.offset() + ",\"replicationPort\":" + primary.getPort() + "}";
+        } else if (replica != null) {
+            return "{\"role\":\"replica\",\"epoch\":" + replica.epoch() + ",\"offset\":" + replica.appliedOffset() + ",\"lagEntries\":" + replica.lagEntries()
+                    + ",\"lagMillis\":" + replica.lagMillis() + "}";
+        }
+        return "{\"role\":\"standalone\"}";
+    }
+
+    // the repository of the given type that the server's repository is, or is layered on, or null
+    private <T extends PersonRepository> T layer(Class<T> type) {
+        PersonRepository layer = repository;
+        while (!type.isInstance(layer)) {
+            if (layer instanceof VersionedPersonRepository versioned) {
+                layer = versioned.getStorage();
+            } else if (layer instanceof ReplicatedPersonRepository replicated) {
+                layer = replicated.getStorage();
+            } else {
+                return null;
+            }
+        }
+        return type.cast(layer);
+    }
+
+    private void addPerson(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = readBody(exchange);
+        Person person = new Person(repository);
+        person.personID = string(body, "personID");
+        person.firstName = string(body, "firstName");
+        person.lastName = string(body, "lastName");
+        person.address = string(body, "address");
+        person.birthdate = string(body, "birthdate");
+
+        boolean added;
+        writeLock.lock();
+        try {
+            added = person.addPerson();
+        } finally {
+            writeLock.unlock();
+        }
+        send(exchange, added ? 201 : 400, "{\"result\":" + added + "}");
+    }
+
+    private void updatePerson(HttpExchange exchange, String personID) throws IOException {
+        Map<String, Object> body = readBody(exchange);
+        Person person = new Person(repository);
+
+        writeLock.lock();
+        try {
+            if (repository.find(personID) == null) {
+                send(exchange, 404, "{\"error\":\"Person not found\"}");
+                return;
+            }
+            boolean updated = person.updatePersonalDetails(personID, string(body, "newID"), string(body, "firstName"),
+                    string(body, "lastName"), string(body, "address"), string(body, "birthdate"));
+            if (!updated) {
+                send(exchange, 400, "{\"result\":false}");
+                return;
+            }
+            // the ingestor may hold the old details, they are loaded again on the next demerit request
+            ingestor.evict(personID);
+            ingestor.evict(person.personID);
+            PersonRecord record = repository.find(person.personID);
+            send(exchange, 200, record == null ? "{\"result\":true}" : toJson(record));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void addDemeritPoints(HttpExchange exchange, String personID) throws IOException {
+        Map<String, Object> body = readBody(exchange);
+        String offenseDate = string(body, "offenseDate");
+        Object points = body.get("points");
+        if (offenseDate == null || !(points instanceof Long)) {
+            throw new IllegalArgumentException("offenseDate and a whole number of points are required");
+        }
+        // narrowing would wrap, so 4294967297 would become 1 point
+        if ((Long) points < Integer.MIN_VALUE || (Long) points > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("points is out of range");
+        }
+
+        if (repository.find(personID) == null) {
+            send(exchange, 404, "{\"error\":\"Person not found\"}");
+            return;
+        }
+        String result;
+        try {
+            // each request waits on its own virtual thread, so a burst of requests becomes a few large writes
+            result = ingestor.submit(personID, offenseDate, ((Long) points).intValue()).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        Person person = ingestor.person(personID);
+        boolean suspended = person != null && person.isSuspended;
+        send(exchange, result.equals("Success") ? 200 : 400,
+                "{\"result\":" + Json.quote(result) + ",\"isSuspended\":" + suspended + "}");
+    }
+
+    private void lookup(HttpExchange exchange, String personID) throws IOException {
+        String asOf = queryParameters(exchange.getRequestURI().getRawQuery()).get("asOf");
+        VersionedPersonRepository versioned = layer(VersionedPersonRepository.class);
+        PersonRecord record;
+        if (asOf == null) {
+            record = repository.find(personID);
+        } else if (versioned != null) {
+            long day = OffenseTimeSeries.epochDay(asOf);
+            if (day == Long.MIN_VALUE) {
+                throw new IllegalArgumentException("asOf must be a date in dd-MM-yyyy format");
+            }
+            // the details at the end of the day are the last ones committed before the next day started
+            Instant endOfDay = LocalDate.ofEpochDay(day + 1).atStartOfDay(ZoneId.systemDefault()).toInstant().minusMillis(1);
+            record = versioned.findAsOf(personID, endOfDay);
+        } else {
+            throw new IllegalArgumentException("asOf needs a versioned repository");
+        }
+        if (record == null) {
+            send(exchange, 404, "{\"error\":\"Person not found\"}");
+        } else {
+            send(exchange, 200, toJson(record));
+        }
+    }
+
+    // streams the matching records while the repository is read, so large lookups never have to fit in memory
+    private void lookupAll(HttpExchange exchange) throws IOException {
+        String ids = queryParameters(exchange.getRequestURI().getRawQuery()).get("ids");
+        Set<String> wanted = ids == null ? null : new HashSet<>(Arrays.asList(ids.split(",")));
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        VersionedPersonRepository versioned = layer(VersionedPersonRepository.class);
+        VersionedPersonRepository.Snapshot snapshot = versioned != null ? versioned.snapshot() : null;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            int[] written = {0};
+            Consumer<PersonRecord> action = record -> {
+                // with ids, only the first record for each id is sent, like a lookup of that id
+                if (wanted != null && !wanted.remove(record.personID)) {
+                    return;
+                }
+                try {
+                    writer.write(toJson(record));
+                    writer.write('\n');
+                    if (++written[0] % FLUSH_EVERY == 0) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            if (snapshot != null) {
+                snapshot.forEach(action);
+            } else {
+                repository.forEach(action);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    private static String toJson(PersonRecord record) {
+        return "{\"personID\":" + Json.quote(record.personID)
+                + ",\"firstName\":" + Json.quote(record.firstName)
+                + ",\"lastName\":" + Json.quote(record.lastName)
+                + ",\"address\":" + Json.quote(record.address)
+                + ",\"birthdate\":" + Json.quote(record.birthdate)
+                + ",\"demeritPoints\":" + record.demeritPoints
+                + ",\"isSuspended\":" + record.isSuspended + "}";
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return Json.parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String string(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    // path segments after /persons, each one percent-decoded (ids can contain characters such as % and #)
+    private static List<String> segments(String rawPath) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : rawPath.substring("/persons".length()).split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(decode(segment));
+            }
+        }
+        return segments;
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+        return parameters;
+    }
+
+    // '+' is a valid id character, so only percent-escapes are decoded
+    private static String decode(String value) {
+        return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
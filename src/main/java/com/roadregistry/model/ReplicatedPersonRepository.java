@@ -0,0 +1,361 @@
+package com.roadregistry.model;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * A ReplicatedPersonRepository is the primary of a group of PersonReplica processes. Every add, replace and offense
+ * is stored in the wrapped repository and then numbered in an ordered mutation log, which is streamed over a socket
+ * to each replica, one virtual thread per replica. A replica says which offset it has applied when it connects
+ * and gets the entries after it, or a full snapshot first if those entries are no longer kept (the last RETAINED
+ * entries are kept in memory) or it has nothing yet (-1). When there is nothing new the primary sends a heartbeat every HEARTBEAT_MILLIS,
+ * which replicas use to work out how far behind they are.
+ *
+ * A snapshot is streamed without holding up writers. The people are read from a VersionedPersonRepository snapshot
+ * opened at the snapshot's offset (the storage itself if it is one, otherwise one layered on it). Offenses are only
+ * ever appended, so while a snapshot is streamed each writer notes how many offenses a person had before their first
+ * new one, and the replica is told to keep just that many of the person's offenses it was sent.
+ *
+ * Offsets only mean something within one log, so every log has an epoch: a new log picks one from the clock and a
+ * promoted replica's log takes the epoch it followed plus one. A replica whose epoch is not the primary's has
+ * applied some other log's entries, which may differ from this log's at the same offsets, so it is sent a snapshot.
+ *
+ * The protocol is one line per message, with tab-separated fields:
+ * <pre>
+ * replica:  FOLLOW epoch applied-offset
+ * primary:  SNAPSHOT epoch offset, then PERSON person-row ... DEMERIT demerit-row ... TRIM person-id count ... END
+ *           ENTRY epoch offset ADD person-row | ENTRY epoch offset REPLACE old-id person-row | ENTRY epoch offset DEMERIT demerit-row
+ *           HEARTBEAT epoch offset
+ * </pre>
+ */
+public class ReplicatedPersonRepository implements PersonRepository, AutoCloseable {
+
+    static final int RETAINED = 1 << 16;
+    static final long HEARTBEAT_MILLIS = 100;
+
+    private final PersonRepository storage;
+    private final VersionedPersonRepository people; // the storage, or versions of it for snapshots
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Socket> replicas = Collections.synchronizedSet(new HashSet<>());
+    private final String[] retained = new String[RETAINED]; // entry k is at k % RETAINED, guarded by this
+    private final List<Snapshot> streaming = new ArrayList<>(); // guarded by this
+    private final long epoch;
+    private final long startOffset;
+    private long offset; // offset of the newest entry, guarded by this
+    private volatile boolean closed;
+
+    /**
+     * Starts a primary with a new log, so replicas of an earlier process are sent a snapshot.
+     *
+     * @param port the port replicas connect to, 0 to pick a free port
+     */
+    public ReplicatedPersonRepository(PersonRepository storage, int port) throws IOException {
+        this(storage, System.currentTimeMillis(), 0, port);
+    }
+
+    /**
+     * Starts a primary whose log carries on from the given offset, such as a promoted replica's last applied offset.
+     *
+     * @param epoch the log's epoch, which must differ from that of every log whose replicas may follow this one
+     */
+    public ReplicatedPersonRepository(PersonRepository storage, long epoch, long startOffset, int port) throws IOException {
+        this.storage = storage;
+        this.people = storage instanceof VersionedPersonRepository versioned ? versioned
+                : new VersionedPersonRepository(storage, Duration.ZERO);
+        this.epoch = epoch;
+        this.startOffset = startOffset;
+        this.offset = startOffset;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+        executor.execute(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public PersonRepository getStorage() {
+        return storage;
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    // the offset of the newest entry in the log
+    public synchronized long offset() {
+        return offset;
+    }
+
+    @Override
+    public PersonRecord find(String personID) {
+        return people.find(personID);
+    }
+
+    @Override
+    public synchronized boolean add(PersonRecord record) throws IOException {
+        if (!people.add(record)) {
+            return false;
+        }
+        append("ADD", record.toLine());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean replace(String personID, PersonRecord record) throws IOException {
+        if (!people.replace(personID, record)) {
+            return false;
+        }
+        append("REPLACE", personID, record.toLine());
+        return true;
+    }
+
+    @Override
+    public synchronized List<PersonRecord> updateTotals(Map<String, Integer> points, Set<String> suspended) throws IOException {
+        List<PersonRecord> updated = people.updateTotals(points, suspended);
+        for (PersonRecord record : updated) {
+            append("REPLACE", record.personID, record.toLine());
+        }
+        return updated;
+    }
+
+    @Override
+    public void forEach(Consumer<PersonRecord> action) {
+        people.forEach(action);
+    }
+
+    @Override
+    public synchronized void addDemerit(DemeritRecord record) throws IOException {
+        countDemerits(Collections.singletonList(record));
+        storage.addDemerit(record);
+        append("DEMERIT", record.toString());
+    }
+
+    @Override
+    public synchronized void addDemerits(List<DemeritRecord> records) throws IOException {
+        countDemerits(records);
+        storage.addDemerits(records);
+        for (DemeritRecord record : records) {
+            append("DEMERIT", record.toString());
+        }
+    }
+
+    @Override
+    public List<DemeritRecord> demerits(String personID) throws IOException {
+        return storage.demerits(personID);
+    }
+
+    @Override
+    public void forEachDemerit(Consumer<DemeritRecord> action) throws IOException {
+        storage.forEachDemerit(action);
+    }
+
+    @Override
+    public List<RegistryListener> listeners() {
+        return storage.listeners();
+    }
+
+    /**
+     * Stops accepting replicas and disconnects the connected ones. The wrapped repository is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (replicas) {
+            for (Socket socket : replicas) {
+                socket.close();
+            }
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        executor.close();
+    }
+
+    // adds an entry to the log, callers hold the lock
+    private void append(String type, String... fields) {
+        offset++;
+        String[] message = new String[fields.length + 4];
+        message[0] = "ENTRY";
+        message[1] = String.valueOf(epoch);
+        message[2] = String.valueOf(offset);
+        message[3] = type;
+        System.arraycopy(fields, 0, message, 4, fields.length);
+        retained[(int) (offset % RETAINED)] = message(message);
+        notifyAll();
+    }
+
+    // notes how many offenses each person had before the first new one for every snapshot being streamed,
+    // callers hold the lock
+    private void countDemerits(List<DemeritRecord> records) throws IOException {
+        for (Snapshot snapshot : streaming) {
+            for (DemeritRecord record : records) {
+                if (!snapshot.demeritCounts.containsKey(record.personID)) {
+                    snapshot.demeritCounts.put(record.personID, storage.demerits(record.personID).size());
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                replicas.add(socket);
+                executor.execute(() -> stream(socket));
+            } catch (IOException e) {
+                // closed, or a failed accept that the next one may not repeat
+            }
+        }
+    }
+
+    // sends one replica everything after the offset it asks for, and then every new entry as it is appended
+    private void stream(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String hello = reader.readLine();
+            String[] request = hello == null ? new String[0] : fields(hello);
+            if (request.length != 3 || !request[0].equals("FOLLOW")) {
+                return;
+            }
+            boolean sameLog = Long.parseLong(request[1]) == epoch;
+            long sent = Long.parseLong(request[2]);
+            List<String> batch = new ArrayList<>();
+            while (!closed) {
+                batch.clear();
+                long upTo;
+                Snapshot snapshot = null;
+                synchronized (this) {
+                    if (sameLog && sent == offset) {
+                        wait(HEARTBEAT_MILLIS);
+                    }
+                    upTo = offset;
+                    // a new replica, one that followed another log, or one ahead of this log or further behind than
+                    // the kept entries, starts again
+                    if (!sameLog || sent > offset || sent < Math.max(startOffset, offset - RETAINED)) {
+                        snapshot = new Snapshot(people.snapshot());
+                        streaming.add(snapshot);
+                    } else {
+                        for (long entry = sent + 1; entry <= upTo; entry++) {
+                            batch.add(retained[(int) (entry % RETAINED)]);
+                        }
+                    }
+                }
+                if (snapshot != null) {
+                    // the entries appended meanwhile are sent on the next pass, or a newer snapshot if they are gone
+                    writeSnapshot(snapshot, upTo, writer);
+                    sameLog = true;
+                }
+                for (String message : batch) {
+                    writer.write(message);
+                    writer.write('\n');
+                }
+                writer.write(message("HEARTBEAT", String.valueOf(epoch), String.valueOf(upTo)));
+                writer.write('\n');
+                writer.flush();
+                sent = upTo;
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // the replica went away or sent something unreadable, it reconnects from its applied offset
+        } finally {
+            replicas.remove(socket);
+        }
+    }
+
+    // streams every record as of the offset the snapshot was opened at, while writers carry on
+    private void writeSnapshot(Snapshot snapshot, long at, Writer writer) throws IOException {
+        try {
+            writer.write(message("SNAPSHOT", String.valueOf(epoch), String.valueOf(at)) + "\n");
+            Consumer<String> line = message -> {
+                try {
+                    writer.write(message);
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            snapshot.people.forEach(record -> line.accept(message("PERSON", record.toLine())));
+            // this may include offenses added since, which the counts taken by the writers trim off
+            storage.forEachDemerit(record -> line.accept(message("DEMERIT", record.toString())));
+            Map<String, Integer> counts;
+            synchronized (this) {
+                streaming.remove(snapshot);
+                counts = snapshot.demeritCounts;
+            }
+            counts.forEach((personID, count) -> line.accept(message("TRIM", personID, String.valueOf(count))));
+            writer.write(message("END") + "\n");
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            synchronized (this) {
+                streaming.remove(snapshot);
+            }
+            snapshot.people.close();
+        }
+    }
+
+    /**
+     * A snapshot being streamed to a replica: the people as of its offset, and for each person given an offense
+     * since, how many offenses they had at that offset.
+     */
+    private static final class Snapshot {
+        private final VersionedPersonRepository.Snapshot people;
+        private final Map<String, Integer> demeritCounts = new HashMap<>(); // guarded by the repository
+
+        private Snapshot(VersionedPersonRepository.Snapshot people) {
+            this.people = people;
+        }
+    }
+
+    // joins the fields with tabs, escaping backslashes, tabs and line breaks so every message is one line
+    static String message(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            for (int c = 0; c < fields[i].length(); c++) {
+                char ch = fields[i].charAt(c);
+                switch (ch) {
+                    case '\\' -> line.append("\\\\");
+                    case '\t' -> line.append("\\t");
+                    case '\n' -> line.append("\\n");
+                    case '\r' -> line.append("\\r");
+                    default -> line.append(ch);
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    static String[] fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int c = 0; c < line.length(); c++) {
+            char ch = line.charAt(c);
+            if (ch == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (ch == '\\' && c + 1 < line.length()) {
+                char escaped = line.charAt(++c);
+                field.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                field.append(ch);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,293 @@
+package com.roadregistry.model;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A VersionedPersonRepository keeps every committed version of each person record in memory, in front of
+ * another repository that stores the latest versions. Each add or replace is a new commit with a number and a time,
+ * and readers work from a Snapshot of a commit number, so a long report or export sees one consistent registry
+ * without locking out writers, and never sees half of an update (a changed ID is removed and added in one commit).
+ *
+ * Old versions are dropped by collectGarbage once no open snapshot can see them and they are older than the
+ * retention period, which is how far back findAsOf can answer. History starts when the repository is created.
+ * Offenses are not versioned and go straight to the storage repository.
+ */
+public class VersionedPersonRepository implements PersonRepository {
+
+    private static final int COLLECT_EVERY = 256; // commits between automatic garbage collections
+
+    private final PersonRepository storage;
+    private final Duration retention;
+    private final Map<String, Version> heads = new ConcurrentHashMap<>(); // newest version of each ID
+    private final ConcurrentSkipListSet<Snapshot> open = new ConcurrentSkipListSet<>();
+    private final AtomicLong snapshotIds = new AtomicLong();
+    private final ArrayDeque<long[]> commitTimes = new ArrayDeque<>(); // {commit, time} of each commit still kept
+    private volatile long committed;      // newest commit readers may see
+    private volatile long collectedUpTo;  // commits before this one may have lost their old versions
+    private volatile long historyStart;   // time of the oldest commit findAsOf can answer for
+
+    /**
+     * Loads the current records of the storage repository as the first commit.
+     *
+     * @param retention how long replaced versions are kept for findAsOf
+     */
+    public VersionedPersonRepository(PersonRepository storage, Duration retention) throws IOException {
+        this.storage = storage;
+        this.retention = retention;
+        long now = System.currentTimeMillis();
+        storage.forEach(record -> heads.putIfAbsent(record.personID, new Version(record, 0, now, null)));
+        commitTimes.add(new long[]{0, now});
+        historyStart = now;
+    }
+
+    public PersonRepository getStorage() {
+        return storage;
+    }
+
+    // the number of the newest commit
+    public long version() {
+        return committed;
+    }
+
+    /**
+     * Opens a snapshot of the newest commit. It must be closed so the versions it sees can be collected.
+     */
+    public Snapshot snapshot() {
+        while (true) {
+            Snapshot snapshot = new Snapshot(committed, snapshotIds.incrementAndGet());
+            open.add(snapshot);
+            // collectGarbage publishes its horizon before looking at the open snapshots, so a snapshot older than
+            // the horizon might not have been seen and is taken again from a newer commit
+            if (snapshot.version >= collectedUpTo) {
+                return snapshot;
+            }
+            open.remove(snapshot);
+        }
+    }
+
+    @Override
+    public PersonRecord find(String personID) {
+        return visible(heads.get(personID), committed);
+    }
+
+    /**
+     * Returns the details a person had at the given time, or null if there was no person with that ID.
+     *
+     * @throws IllegalArgumentException if the time is before the oldest version still kept
+     */
+    public PersonRecord findAsOf(String personID, Instant time) {
+        long millis = time.toEpochMilli();
+        if (millis < historyStart) {
+            throw new IllegalArgumentException("Versions from before " + Instant.ofEpochMilli(historyStart) + " are no longer kept");
+        }
+        for (Version version = heads.get(personID); version != null; version = version.previous) {
+            if (version.commit <= committed && version.time <= millis) {
+                return version.record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void forEach(Consumer<PersonRecord> action) {
+        forEach(committed, action);
+    }
+
+    @Override
+    public synchronized boolean add(PersonRecord record) throws IOException {
+        if (!storage.add(record)) {
+            return false;
+        }
+        commit(Collections.singletonMap(record.personID, record));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean replace(String personID, PersonRecord record) throws IOException {
+        if (find(personID) == null || !storage.replace(personID, record)) {
+            return false;
+        }
+        Map<String, PersonRecord> changes = new HashMap<>();
+        changes.put(personID, null); // removed unless the ID stays the same
+        changes.put(record.personID, record);
+        commit(changes);
+        return true;
+    }
+
+    @Override
+    public synchronized List<PersonRecord> updateTotals(Map<String, Integer> points, Set<String> suspended) throws IOException {
+        List<PersonRecord> updated = storage.updateTotals(points, suspended);
+        if (!updated.isEmpty()) {
+            Map<String, PersonRecord> changes = new HashMap<>();
+            for (PersonRecord record : updated) {
+                changes.put(record.personID, record);
+            }
+            commit(changes);
+        }
+        return updated;
+    }
+
+    @Override
+    public void addDemerit(DemeritRecord record) throws IOException {
+        storage.addDemerit(record);
+    }
+
+    @Override
+    public void addDemerits(List<DemeritRecord> records) throws IOException {
+        storage.addDemerits(records);
+    }
+
+    @Override
+    public List<DemeritRecord> demerits(String personID) throws IOException {
+        return storage.demerits(personID);
+    }
+
+    @Override
+    public void forEachDemerit(Consumer<DemeritRecord> action) throws IOException {
+        storage.forEachDemerit(action);
+    }
+
+    @Override
+    public List<RegistryListener> listeners() {
+        return storage.listeners();
+    }
+
+    /**
+     * Drops the versions that no open snapshot can see and that were replaced longer ago than the retention period.
+     *
+     * @return the number of versions dropped
+     */
+    public synchronized long collectGarbage() {
+        // the horizon is the newest commit older than the retention period, every version it sees is kept
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        long[] oldest = commitTimes.removeFirst();
+        while (!commitTimes.isEmpty() && commitTimes.getFirst()[1] <= cutoff) {
+            oldest = commitTimes.removeFirst();
+        }
+        commitTimes.addFirst(oldest);
+        long horizon = oldest[0];
+        long horizonTime = oldest[1];
+        collectedUpTo = Math.max(collectedUpTo, horizon);
+        if (!open.isEmpty()) {
+            horizon = Math.min(horizon, open.first().version);
+        }
+
+        long dropped = 0;
+        for (Version head : heads.values()) {
+            Version version = head;
+            while (version != null && version.commit > horizon) {
+                version = version.previous;
+            }
+            if (version == null) {
+                continue;
+            }
+            // version is what the horizon sees, anything before it is unreachable
+            for (Version older = version.previous; older != null; older = older.previous) {
+                dropped++;
+            }
+            version.previous = null;
+        }
+        // a removed ID whose removal every reader can see is dropped altogether
+        for (Iterator<Map.Entry<String, Version>> entries = heads.entrySet().iterator(); entries.hasNext(); ) {
+            Version head = entries.next().getValue();
+            if (head.record == null && head.commit <= horizon) {
+                entries.remove();
+                dropped++;
+            }
+        }
+        historyStart = Math.max(historyStart, horizonTime);
+        return dropped;
+    }
+
+    // installs the changes as one new commit, a null record removes the ID, callers hold the lock
+    private void commit(Map<String, PersonRecord> changes) {
+        long commit = committed + 1;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, PersonRecord> change : changes.entrySet()) {
+            heads.put(change.getKey(), new Version(change.getValue(), commit, now, heads.get(change.getKey())));
+        }
+        commitTimes.add(new long[]{commit, now});
+        committed = commit; // readers only look at versions up to committed, so the whole commit appears at once
+        if (commit % COLLECT_EVERY == 0) {
+            collectGarbage();
+        }
+    }
+
+    private void forEach(long commit, Consumer<PersonRecord> action) {
+        for (Version head : heads.values()) {
+            PersonRecord record = visible(head, commit);
+            if (record != null) {
+                action.accept(record);
+            }
+        }
+    }
+
+    // the record the given commit sees in a version chain, null if the ID did not exist or had been removed
+    private static PersonRecord visible(Version version, long commit) {
+        while (version != null && version.commit > commit) {
+            version = version.previous;
+        }
+        return version == null ? null : version.record;
+    }
+
+    /**
+     * One version of a person record. A null record means the ID was removed in that commit.
+     */
+    private static final class Version {
+        final PersonRecord record;
+        final long commit;
+        final long time;
+        volatile Version previous;
+
+        Version(PersonRecord record, long commit, long time, Version previous) {
+            this.record = record;
+            this.commit = commit;
+            this.time = time;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * A consistent, read-only view of the registry as of one commit. Reads never block and are not affected by
+     * later commits. Close it when done so the old versions it keeps alive can be collected.
+     */
+    public final class Snapshot implements AutoCloseable, Comparable<Snapshot> {
+        private final long version;
+        private final long id;
+
+        private Snapshot(long version, long id) {
+            this.version = version;
+            this.id = id;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public PersonRecord find(String personID) {
+            return visible(heads.get(personID), version);
+        }
+
+        public void forEach(Consumer<PersonRecord> action) {
+            VersionedPersonRepository.this.forEach(version, action);
+        }
+
+        @Override
+        public void close() {
+            open.remove(this);
+        }
+
+        // oldest commit first, so the first open snapshot is the oldest one
+        @Override
+        public int compareTo(Snapshot other) {
+            return version != other.version ? Long.compare(version, other.version) : Long.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Unit tests for the DemeritArchive's archive(), forEach() and history() methods.
+ */
+public class DemeritArchiveTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 6, 1);
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test case 1: Only offenses before the two year window are moved out of the hot file, into monthly segments
+     */
+    @Test
+    public void testArchive_MovesExpiredRows() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        Files.write(file, Arrays.asList(
+            "23AB$%12XY, 15-01-2022, 6",
+            "45CD@#34EF, 20-01-2022, 2",
+            "23AB$%12XY, 03-03-2023, 4",
+            "23AB$%12XY, 02-06-2023, 1",
+            "broken row",
+            "45CD@#34EF, 31-02-2022, 3"
+        ));
+        DemeritArchive archive = new DemeritArchive(file, tempDir.resolve("archive"));
+
+        assertEquals(3, archive.archive(TODAY), "Wrong number of offenses archived");
+        // 02-06-2023 is exactly two years before TODAY, so it still counts and stays in the hot file
+        assertEquals(Arrays.asList("23AB$%12XY, 02-06-2023, 1", "broken row", "45CD@#34EF, 31-02-2022, 3"),
+                Files.readAllLines(file), "Active and unreadable rows should stay in the hot file");
+        assertTrue(Files.exists(tempDir.resolve("archive/demerits-2022-01.txt.gz")));
+        assertTrue(Files.exists(tempDir.resolve("archive/demerits-2023-03.txt.gz")));
+        assertEquals(0, archive.archive(TODAY), "Nothing more should be archived on the same day");
+
+        List<DemeritRecord> hot = DemeritLog.forFile(file).read("23AB$%12XY");
+        assertEquals(1, hot.size(), "The offset index should only see the active rows");
+    }
+
+    /**
+     * Test case 2: Later runs add to existing segments and audits still see every offense
+     */
+    @Test
+    public void testHistory_IncludesArchive() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        Files.write(file, Arrays.asList("23AB$%12XY, 15-01-2022, 6"));
+        DemeritArchive archive = new DemeritArchive(file, tempDir.resolve("archive"));
+        archive.archive(TODAY);
+
+        DemeritLog.forFile(file).append("23AB$%12XY", "20-01-2022", 2);
+        DemeritLog.forFile(file).append("23AB$%12XY", "01-01-2025", 5);
+        assertEquals(1, archive.archive(TODAY));
+
+        assertEquals(Arrays.asList("15-01-2022:6", "20-01-2022:2", "01-01-2025:5"),
+                archive.history("23AB$%12XY").stream().map(r -> r.offenseDate + ":" + r.points).collect(Collectors.toList()));
+
+        List<DemeritRecord> january = new ArrayList<>();
+        archive.forEach(LocalDate.of(2022, 1, 16), LocalDate.of(2022, 1, 31), january::add);
+        assertEquals(Arrays.asList(new DemeritRecord("23AB$%12XY", "20-01-2022", 2)), january);
+    }
+
+    /**
+     * Test case 3: A failed run leaves every row in the hot file and no partial segments
+     */
+    @Test
+    public void testArchive_FailureKeepsRows() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        List<String> rows = Arrays.asList("23AB$%12XY, 15-01-2022, 6", "23AB$%12XY, 01-01-2025, 5");
+        Files.write(file, rows);
+        // a plain file where the archive directory should be makes the segment writes fail
+        Path archiveDirectory = tempDir.resolve("archive");
+        Files.write(archiveDirectory, new byte[0]);
+
+        assertThrows(IOException.class, () -> new DemeritArchive(file, archiveDirectory).archive(TODAY));
+        assertEquals(rows, Files.readAllLines(file), "Rows should not be lost when archiving fails");
+        assertFalse(Files.exists(tempDir.resolve("demerits.txt.tmp")), "Temporary file should be removed");
+    }
+
+    /**
+     * Test case 4: A run that stopped after writing its segments is undone by the next run, so rows are archived once
+     */
+    @Test
+    public void testArchive_RecoversStoppedRun() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        Path archiveDirectory = tempDir.resolve("archive");
+        Files.write(file, Arrays.asList("23AB$%12XY, 15-01-2022, 6"));
+        new DemeritArchive(file, archiveDirectory).archive(TODAY);
+        DemeritLog.forFile(file).append("23AB$%12XY", "20-01-2022", 2);
+        DemeritLog.forFile(file).append("23AB$%12XY", "15-03-2022", 1);
+        DemeritLog.forFile(file).append("23AB$%12XY", "01-01-2025", 5);
+
+        // what a run leaves when it stops after putting its segments in place and before replacing the hot file:
+        // the marker with the old lengths, a new member on the January segment and a new March segment
+        Path january = archiveDirectory.resolve("demerits-2022-01.txt.gz");
+        byte[] hot = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(hot);
+        Files.write(archiveDirectory.resolve("archive-run.pending"), Arrays.asList("hot " + hot.length + " " + crc.getValue(),
+                "segment demerits-2022-01.txt.gz " + Files.size(january), "segment demerits-2022-03.txt.gz -1"));
+        writeMember(january, "23AB$%12XY, 20-01-2022, 2");
+        writeMember(archiveDirectory.resolve("demerits-2022-03.txt.gz"), "23AB$%12XY, 15-03-2022, 1");
+
+        DemeritArchive archive = new DemeritArchive(file, archiveDirectory);
+        assertEquals(2, archive.archive(TODAY));
+        assertEquals(Arrays.asList("15-01-2022:6", "20-01-2022:2", "15-03-2022:1", "01-01-2025:5"),
+                archive.history("23AB$%12XY").stream().map(r -> r.offenseDate + ":" + r.points).collect(Collectors.toList()),
+                "Every offense should be archived exactly once");
+        assertFalse(Files.exists(archiveDirectory.resolve("archive-run.pending")), "The marker should be removed");
+    }
+
+    // appends a gzip member with the rows to a segment, like a run does
+    private static void writeMember(Path segment, String... rows) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(segment,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)), StandardCharsets.UTF_8)) {
+            for (String row : rows) {
+                writer.write(DemeritRecord.parse(row).toLine());
+            }
+        }
+    }
+
+    /**
+     * Test case 5: Offense totals loaded with the archive still count offenses that have left the hot file
+     */
+    @Test
+    public void testOffenseTotals_IncludeArchive() throws IOException {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        repository.add(PersonRecord.parse("23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false"));
+        repository.addDemerit(new DemeritRecord("23AB$%12XY", "10-03-2020", 3));
+        repository.addDemerit(new DemeritRecord("23AB$%12XY", "01-01-2025", 2));
+        LocalDate from = LocalDate.of(2020, 1, 1);
+        LocalDate to = LocalDate.of(2020, 12, 31);
+        assertEquals(3, OffenseTimeSeries.load(repository, true).points(from, to));
+
+        DemeritArchive archive = DemeritArchive.forRepository(repository);
+        assertEquals(1, archive.archive(TODAY));
+        OffenseTimeSeries series = OffenseTimeSeries.load(repository, archive, true);
+        assertEquals(3, series.points(from, to), "Archived offenses should still be counted");
+        assertEquals(3, series.points("3000", from, to));
+        assertEquals(5, series.points(from, TODAY));
+    }
+}
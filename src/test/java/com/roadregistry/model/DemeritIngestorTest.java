@@ -0,0 +1,235 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Unit tests for the DemeritIngestor's offer(), submit() and close() methods.
+ */
+public class DemeritIngestorTest {
+
+    private static final String JOHN = "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false";
+    private static final String BOB = "67EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false";
+
+    @TempDir
+    Path tempDir;
+
+    private static String daysAgo(int days) {
+        return LocalDate.now().minusDays(days).format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+    }
+
+    /**
+     * Test case 1: Offenses submitted from many threads are all written to the file and their futures completed
+     */
+    @Test
+    public void testSubmit_ManyProducers() throws Exception {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        repository.add(PersonRecord.parse(JOHN));
+        repository.add(PersonRecord.parse(BOB));
+        OffenseTimeSeries series = new OffenseTimeSeries(false);
+        repository.addListener(series);
+
+        List<CompletableFuture<String>> results = Collections.synchronizedList(new ArrayList<>());
+        try (DemeritIngestor ingestor = new DemeritIngestor(repository, 64)) {
+            ExecutorService producers = Executors.newFixedThreadPool(8);
+            for (int t = 0; t < 8; t++) {
+                String id = t % 2 == 0 ? "23AB$%12XY" : "67EF!*56GH";
+                producers.execute(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        results.add(ingestor.submit(id, "01-01-2020", 1));
+                    }
+                });
+            }
+            producers.shutdown();
+            assertTrue(producers.awaitTermination(30, TimeUnit.SECONDS));
+            CompletableFuture.allOf(results.toArray(CompletableFuture<?>[]::new)).get(30, TimeUnit.SECONDS);
+        }
+
+        assertEquals(4000, results.size());
+        assertTrue(results.stream().allMatch(r -> r.join().equals("Success")));
+        assertEquals(4000, Files.readAllLines(repository.getDemeritsFile()).size(), "Every offense should be written");
+        assertEquals(2000, repository.demerits("67EF!*56GH").size());
+        LocalDate day = LocalDate.of(2020, 1, 1);
+        assertEquals(4000, series.points(day, day), "Listeners should be told about every offense");
+    }
+
+    /**
+     * Test case 2: Invalid offenses and unknown people fail without being written
+     */
+    @Test
+    public void testSubmit_InvalidOffenses() throws Exception {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse(JOHN));
+        try (DemeritIngestor ingestor = new DemeritIngestor(repository, 16)) {
+            assertEquals("Failed", ingestor.submit("23AB$%12XY", "2024-01-01", 3).get(5, TimeUnit.SECONDS));
+            assertEquals("Failed", ingestor.submit("23AB$%12XY", "01-01-2024", 7).get(5, TimeUnit.SECONDS));
+            assertEquals("Failed", ingestor.submit("99ZZ$%99ZZ", "01-01-2024", 3).get(5, TimeUnit.SECONDS));
+            assertEquals("Success", ingestor.submit("23AB$%12XY", "01-01-2024", 3).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, repository.demerits("23AB$%12XY").size(), "Only the valid offense should be recorded");
+        assertTrue(repository.demerits("99ZZ$%99ZZ").isEmpty());
+    }
+
+    /**
+     * Test case 3: Suspension is worked out across offenses recorded earlier and offenses in the same batch
+     */
+    @Test
+    public void testSubmit_Suspension() throws Exception {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse(JOHN)); // over 21, suspended above 12 points
+        repository.addDemerit(new DemeritRecord("23AB$%12XY", daysAgo(30), 6));
+        try (DemeritIngestor ingestor = new DemeritIngestor(repository, 16)) {
+            CompletableFuture<String> first = ingestor.submit("23AB$%12XY", daysAgo(20), 6);
+            CompletableFuture<String> second = ingestor.submit("23AB$%12XY", daysAgo(10), 1);
+            assertEquals("Success", first.get(5, TimeUnit.SECONDS));
+            assertEquals("Success", second.get(5, TimeUnit.SECONDS));
+            assertTrue(ingestor.person("23AB$%12XY").isSuspended, "13 points in two years should suspend");
+        }
+    }
+
+    /**
+     * Test case 4: A full buffer refuses offers until the consumer catches up, and close records what is queued
+     */
+    @Test
+    public void testOffer_Backpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(1);
+        InMemoryPersonRepository repository = new InMemoryPersonRepository() {
+            @Override
+            public void addDemerits(List<DemeritRecord> records) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.addDemerits(records);
+            }
+        };
+        repository.add(PersonRecord.parse(JOHN));
+
+        DemeritIngestor ingestor = new DemeritIngestor(repository, 2);
+        CompletableFuture<String> first = ingestor.offer("23AB$%12XY", "01-01-2024", 1);
+        assertTrue(writing.await(5, TimeUnit.SECONDS), "Consumer should be writing the first offense");
+        assertNotNull(ingestor.offer("23AB$%12XY", "02-01-2024", 1));
+        assertNotNull(ingestor.offer("23AB$%12XY", "03-01-2024", 1));
+        assertNull(ingestor.offer("23AB$%12XY", "04-01-2024", 1), "Full buffer should refuse the offer");
+        assertEquals(2, ingestor.backlog());
+        assertFalse(first.isDone(), "Offense should not be complete before it is recorded");
+
+        release.countDown();
+        ingestor.close();
+        assertEquals("Success", first.get(5, TimeUnit.SECONDS));
+        assertEquals(3, repository.demerits("23AB$%12XY").size(), "Queued offenses should be recorded on close");
+        assertThrows(IllegalStateException.class, () -> ingestor.offer("23AB$%12XY", "05-01-2024", 1));
+    }
+
+    /**
+     * Test case 5: A listener that throws does not stop the consumer or fail the recorded offenses
+     */
+    @Test
+    public void testListenerFailure_ConsumerKeepsGoing() throws Exception {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse(JOHN));
+        repository.addListener(new RegistryListener() {
+            @Override
+            public void demeritAdded(Person person, LocalDate offenseDate, int points) {
+                throw new IllegalStateException("broken index");
+            }
+        });
+
+        try (DemeritIngestor ingestor = new DemeritIngestor(repository, 8)) {
+            CompletableFuture<String> first = ingestor.submit("23AB$%12XY", "01-01-2024", 1);
+            assertEquals("Success", first.get(5, TimeUnit.SECONDS));
+            CompletableFuture<String> second = ingestor.submit("23AB$%12XY", "02-01-2024", 1);
+            assertEquals("Success", second.get(5, TimeUnit.SECONDS), "Offenses after the failure should still be recorded");
+        }
+        assertEquals(2, repository.demerits("23AB$%12XY").size());
+    }
+
+    /**
+     * Test case 6: A person evicted while they are being loaded is loaded again instead of keeping the old details
+     */
+    @Test
+    public void testEvict_DuringLoad() throws Exception {
+        DemeritIngestor[] ingestor = new DemeritIngestor[1];
+        boolean[] updated = {false};
+        InMemoryPersonRepository repository = new InMemoryPersonRepository() {
+            @Override
+            public PersonRecord find(String personID) {
+                PersonRecord record = super.find(personID);
+                if (!updated[0]) {
+                    // the details change and are evicted after the ingestor has read them
+                    updated[0] = true;
+                    replace(personID, PersonRecord.parse(BOB.replace("10-12-2010", "10-12-1990")));
+                    ingestor[0].evict(personID);
+                }
+                return record;
+            }
+        };
+        repository.add(PersonRecord.parse(BOB));
+
+        ingestor[0] = new DemeritIngestor(repository, 8);
+        try {
+            assertEquals("Success", ingestor[0].submit("67EF!*56GH", "01-01-2024", 1).get(5, TimeUnit.SECONDS));
+            assertEquals("10-12-1990", ingestor[0].person("67EF!*56GH").birthdate, "The cached person should have the new details");
+        } finally {
+            ingestor[0].close();
+        }
+    }
+
+    /**
+     * Test case 7: Only maxCached people are kept, and a dropped person is loaded again with their recorded history
+     */
+    @Test
+    public void testCache_Bounded() throws Exception {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse(JOHN));
+        repository.add(PersonRecord.parse(BOB));
+        try (DemeritIngestor ingestor = new DemeritIngestor(repository, 8, 1)) {
+            assertEquals("Success", ingestor.submit("67EF!*56GH", daysAgo(10), 4).get(5, TimeUnit.SECONDS));
+            assertEquals("Success", ingestor.submit("23AB$%12XY", daysAgo(10), 1).get(5, TimeUnit.SECONDS));
+            assertNull(ingestor.person("67EF!*56GH"), "The least recently used person should be dropped");
+            assertNotNull(ingestor.person("23AB$%12XY"));
+
+            // Bob is under 21, so 4 + 3 points is a suspension only if the first offense is in the reloaded history
+            assertEquals("Success", ingestor.submit("67EF!*56GH", daysAgo(5), 3).get(5, TimeUnit.SECONDS));
+            assertTrue(ingestor.person("67EF!*56GH").isSuspended, "The reloaded history should count");
+            assertNull(ingestor.person("23AB$%12XY"));
+        }
+    }
+
+    /**
+     * Test case 8: The stored record gets the batch's points added to its total and the suspension
+     */
+    @Test
+    public void testSubmit_StoresTotals() throws Exception {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        repository.add(PersonRecord.parse(JOHN));
+        repository.add(PersonRecord.parse(BOB));
+        try (DemeritIngestor ingestor = new DemeritIngestor(repository, 16)) {
+            CompletableFuture<String> first = ingestor.submit("67EF!*56GH", daysAgo(20), 4);
+            CompletableFuture<String> second = ingestor.submit("67EF!*56GH", daysAgo(10), 3);
+            CompletableFuture<String> third = ingestor.submit("23AB$%12XY", daysAgo(10), 2);
+            assertEquals("Success", first.get(5, TimeUnit.SECONDS));
+            assertEquals("Success", second.get(5, TimeUnit.SECONDS));
+            assertEquals("Success", third.get(5, TimeUnit.SECONDS));
+        }
+
+        PersonRecord bob = repository.find("67EF!*56GH");
+        assertEquals(9, bob.demeritPoints);
+        assertTrue(bob.isSuspended, "7 points in two years should suspend someone under 21");
+        PersonRecord john = repository.find("23AB$%12XY");
+        assertEquals(2, john.demeritPoints);
+        assertFalse(john.isSuspended);
+        assertEquals("Bob", bob.firstName, "The other details should be kept");
+    }
+}
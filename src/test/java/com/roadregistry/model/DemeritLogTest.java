@@ -0,0 +1,88 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Unit tests for the DemeritLog's append() and read() methods and its offset index.
+ */
+public class DemeritLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test case 1: Only the rows of the requested person are read, in the order they were appended
+     */
+    @Test
+    public void testRead_OnlyPersonRows() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        Files.write(file, Arrays.asList("23AB$%12XY, 01-01-2024, 6", "45CD@#34EF, 15-06-2024, 2"));
+        DemeritLog log = DemeritLog.forFile(file);
+
+        long offset = log.append("23AB$%12XY", "02-02-2024", 3);
+        assertEquals(Files.size(file) - "23AB$%12XY, 02-02-2024, 3\n".length(), offset, "Wrong offset returned");
+
+        assertEquals(Arrays.asList("01-01-2024:6", "02-02-2024:3"), describe(log.read("23AB$%12XY")));
+        assertEquals(Arrays.asList("15-06-2024:2"), describe(log.read("45CD@#34EF")));
+        assertTrue(log.read("99ZZ$%99ZZ").isEmpty(), "Unknown person should have no offenses");
+        assertSame(log, DemeritLog.forFile(tempDir.resolve("./demerits.txt")), "One log should be shared per file");
+    }
+
+    /**
+     * Test case 2: Rows appended by another writer and rewrites of the file are picked up
+     */
+    @Test
+    public void testRead_PicksUpOutsideChanges() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        DemeritLog log = DemeritLog.forFile(file);
+        assertTrue(log.read("23AB$%12XY").isEmpty(), "Missing file should have no offenses");
+        log.append("23AB$%12XY", "01-01-2024", 6);
+
+        // another process appends a full row and the start of a second one
+        Files.write(file, "23AB$%12XY, 03-03-2024, 1\n45CD@#34EF, 04-".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("01-01-2024:6", "03-03-2024:1"), describe(log.read("23AB$%12XY")));
+        assertTrue(log.read("45CD@#34EF").isEmpty(), "Incomplete row should not be read yet");
+        Files.write(file, "04-2024, 5\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("04-04-2024:5"), describe(log.read("45CD@#34EF")));
+
+        // the file is rewritten with fewer rows
+        Files.write(file, Arrays.asList("45CD@#34EF, 05-05-2024, 2"));
+        assertTrue(log.read("23AB$%12XY").isEmpty(), "Rewritten file should be indexed again");
+        assertEquals(Arrays.asList("05-05-2024:2"), describe(log.read("45CD@#34EF")));
+    }
+
+    /**
+     * Test case 3: Many people and rows longer than the first read size
+     */
+    @Test
+    public void testRead_ManyRows() throws IOException {
+        Path file = tempDir.resolve("demerits.txt");
+        DemeritLog log = DemeritLog.forFile(file);
+        for (int i = 0; i < 500; i++) {
+            log.append("P" + (i % 7) + "-ÄÖ-" + String.join("", Collections.nCopies(i % 3 * 40, "x")),
+                    String.format("%02d-01-2024", 1 + i % 28), 1 + i % 6);
+        }
+        log.invalidate();
+        int total = 0;
+        for (int p = 0; p < 7; p++) {
+            for (int len = 0; len < 3; len++) {
+                total += log.read("P" + p + "-ÄÖ-" + String.join("", Collections.nCopies(len * 40, "x"))).size();
+            }
+        }
+        assertEquals(500, total, "Every row should be found through the index");
+    }
+
+    private static List<String> describe(List<DemeritRecord> entries) {
+        return entries.stream().map(e -> e.offenseDate + ":" + e.points).collect(Collectors.toList());
+    }
+}
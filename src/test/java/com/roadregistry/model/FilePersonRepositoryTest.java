@@ -0,0 +1,92 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Unit tests for the FilePersonRepository's find(), add(), replace() and demerit methods.
+ */
+public class FilePersonRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test case 1: Added records are found, malformed rows are skipped and a taken ID is not added again
+     */
+    @Test
+    public void testAddAndFind() throws IOException {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        assertNull(repository.find("23AB$%12XY"), "Missing file should have no records");
+
+        Files.write(repository.getPersonFile(), Arrays.asList("broken,row"));
+        repository.add(PersonRecord.parse("23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false"));
+        repository.add(PersonRecord.parse("45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false"));
+
+        assertEquals("Jane", repository.find("45CD@#34EF").firstName);
+        assertFalse(repository.add(PersonRecord.parse("45CD@#34EF,Other,Person,1 Main St|Melbourne|3000|Victoria|AU,01-01-2000,0,false")),
+                "A taken ID should be rejected");
+        assertEquals(3, Files.readAllLines(repository.getPersonFile()).size(), "A rejected record should not be written");
+        List<String> ids = new ArrayList<>();
+        repository.forEach(record -> ids.add(record.personID));
+        assertEquals(Arrays.asList("23AB$%12XY", "45CD@#34EF"), ids, "Records should be read in file order");
+    }
+
+    /**
+     * Test case 2: Replacing a record rewrites only its row and keeps malformed rows
+     */
+    @Test
+    public void testReplace() throws IOException {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        Files.write(repository.getPersonFile(), Arrays.asList(
+            "77EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false",
+            "broken,row"
+        ));
+
+        PersonRecord renamed = PersonRecord.parse("79EF!*56GH,Robert,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false");
+        assertTrue(repository.replace("77EF!*56GH", renamed));
+        assertFalse(repository.replace("77EF!*56GH", renamed), "Old ID should no longer be found");
+        assertEquals(Arrays.asList(renamed.toLine(), "broken,row"), Files.readAllLines(repository.getPersonFile()));
+    }
+
+    /**
+     * Test case 3: Offenses are appended to the demerits file and read back by person
+     */
+    @Test
+    public void testDemerits() throws IOException {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        repository.addDemerit(new DemeritRecord("23AB$%12XY", "01-01-2024", 6));
+        repository.addDemerit(new DemeritRecord("45CD@#34EF", "15-06-2024", 2));
+
+        assertEquals(Arrays.asList(new DemeritRecord("23AB$%12XY", "01-01-2024", 6)), repository.demerits("23AB$%12XY"));
+        List<DemeritRecord> all = new ArrayList<>();
+        repository.forEachDemerit(all::add);
+        assertEquals(2, all.size());
+        assertEquals(2, Files.readAllLines(repository.getDemeritsFile()).size());
+    }
+
+    /**
+     * Test case 4: The taken IDs are kept up to date with rows written by another repository for the same file
+     */
+    @Test
+    public void testAdd_SeesRowsWrittenElsewhere() throws IOException {
+        FilePersonRepository repository = FilePersonRepository.inDirectory(tempDir);
+        FilePersonRepository other = FilePersonRepository.inDirectory(tempDir);
+        assertTrue(repository.add(PersonRecord.parse("35AB$%12XY,Tom,Lee,12 Elm St|Melbourne|3004|Victoria|AU,01-01-1980,0,false")));
+        assertTrue(other.add(PersonRecord.parse("45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false")));
+
+        assertFalse(repository.add(PersonRecord.parse("45CD@#34EF,Other,Person,1 Main St|Melbourne|3000|Victoria|AU,01-01-2000,0,false")),
+                "An ID added by another repository should be taken");
+        assertFalse(repository.replace("35AB$%12XY", PersonRecord.parse("45CD@#34EF,Tom,Lee,12 Elm St|Melbourne|3004|Victoria|AU,01-01-1980,0,false")),
+                "A rename to an ID added by another repository should be rejected");
+        assertTrue(other.replace("35AB$%12XY", PersonRecord.parse("37AB$%12XY,Tom,Lee,12 Elm St|Melbourne|3004|Victoria|AU,01-01-1980,0,false")));
+        assertTrue(repository.add(PersonRecord.parse("35AB$%12XY,Sam,Lee,12 Elm St|Melbourne|3004|Victoria|AU,01-01-1980,0,false")),
+                "An ID renamed by another repository should be free again");
+        assertEquals(3, Files.readAllLines(repository.getPersonFile()).size());
+    }
+}
@@ -0,0 +1,101 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the InMemoryPersonRepository, including Person objects using it directly.
+ */
+public class InMemoryPersonRepositoryTest {
+
+    /**
+     * Test case 1: A taken ID is rejected and a replaced record can change its ID
+     */
+    @Test
+    public void testAddAndReplace() {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        PersonRecord bob = PersonRecord.parse("77EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false");
+        assertTrue(repository.add(bob));
+        assertFalse(repository.add(PersonRecord.parse("77EF!*56GH,Other,Person,1 Main St|Melbourne|3000|Victoria|AU,01-01-2000,0,false")),
+                "A taken ID should be rejected");
+        assertEquals(bob, repository.find("77EF!*56GH"), "First record should be kept");
+
+        PersonRecord renamed = PersonRecord.parse("79EF!*56GH,Robert,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false");
+        assertTrue(repository.replace("77EF!*56GH", renamed));
+        assertNull(repository.find("77EF!*56GH"), "Old ID should no longer be found");
+        assertEquals(renamed, repository.find("79EF!*56GH"));
+        assertFalse(repository.replace("99ZZ$%99ZZ", renamed), "Missing person should not be replaced");
+    }
+
+    /**
+     * Test case 2: Separate repositories do not share people, offenses or listeners
+     */
+    @Test
+    public void testRepositoriesAreIndependent() throws Exception {
+        InMemoryPersonRepository first = new InMemoryPersonRepository();
+        InMemoryPersonRepository second = new InMemoryPersonRepository();
+        OffenseTimeSeries series = new OffenseTimeSeries(false);
+        first.addListener(series);
+
+        Person person = new Person(first);
+        person.personID = "35GH&*78JK";
+        person.firstName = "Mary";
+        person.lastName = "ONeil";
+        person.address = "1 Swanston St|Melbourne|3000|Victoria|Australia";
+        person.birthdate = "01-02-1980";
+        assertTrue(person.addPerson());
+        assertEquals("Success", person.addDemeritPoints("01-01-2024", 3));
+
+        assertNotNull(first.find("35GH&*78JK"));
+        assertNull(second.find("35GH&*78JK"), "Person should only be in its own repository");
+        assertEquals(1, first.demerits("35GH&*78JK").size());
+        assertTrue(second.demerits("35GH&*78JK").isEmpty(), "Offense should only be in its own repository");
+        assertEquals(3, series.points(java.time.LocalDate.of(2024, 1, 1), java.time.LocalDate.of(2024, 1, 1)));
+    }
+
+    /**
+     * Test case 3: Offenses recorded from many threads are all kept
+     */
+    @Test
+    public void testConcurrentDemerits() throws InterruptedException {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            String id = "2" + (i % 10) + "AB$%12XY";
+            pool.execute(() -> repository.addDemerit(new DemeritRecord(id, "01-01-2024", 1)));
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        int[] total = {0};
+        repository.forEachDemerit(record -> total[0] += record.points);
+        assertEquals(1000, total[0]);
+        assertEquals(100, repository.demerits("25AB$%12XY").size());
+    }
+
+    /**
+     * Test case 4: addPerson with a taken ID fails and does not tell the listeners
+     */
+    @Test
+    public void testAddPerson_DuplicateID() throws Exception {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse("77EF!*56GH,Bob,Old,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-1990,0,false"));
+        NameSearchIndex names = NameSearchIndex.load(repository);
+        repository.addListener(names);
+
+        Person person = new Person(repository);
+        person.personID = "77EF!*56GH";
+        person.firstName = "Zelda";
+        person.lastName = "Quark";
+        person.address = "1 Swanston St|Melbourne|3000|Victoria|Australia";
+        person.birthdate = "01-02-1980";
+        assertFalse(person.addPerson(), "A taken ID should not be added");
+        assertEquals("Bob", repository.find("77EF!*56GH").firstName);
+        assertTrue(names.search("Zelda Quark", 1).isEmpty(), "Listeners should not see a rejected person");
+        assertEquals(Collections.singletonList("77EF!*56GH"), names.search("Bob Old", 1));
+    }
+}
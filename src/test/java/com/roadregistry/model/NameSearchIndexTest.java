@@ -0,0 +1,123 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Unit tests for the NameSearchIndex's search() method and its incremental updates.
+ */
+public class NameSearchIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test case 1: Misspelled, partial, reordered and accented names find the right person first
+     */
+    @Test
+    public void testSearch_FuzzyMatches() {
+        NameSearchIndex index = new NameSearchIndex();
+        index.add("23AB$%12XY", "John", "Smith");
+        index.add("45CD@#34EF", "Jane", "Doe");
+        index.add("67EF!*56GH", "Siobhán", "O'Brien-Murphy");
+        index.add("48XY@#12AB", "Jonathan", "Smythe");
+
+        assertEquals("23AB$%12XY", index.search("Jon Smith", 5).get(0), "Misspelled name was not ranked first");
+        assertEquals("48XY@#12AB", index.search("jonathon", 5).get(0), "Partial name was not ranked first");
+        assertEquals("23AB$%12XY", index.search("Smith John", 5).get(0), "Reordered name was not ranked first");
+        assertEquals("67EF!*56GH", index.search("siobhan obrien", 5).get(0), "Accented name was not found");
+        assertEquals(1, index.search("Jon Smith", 1).size(), "Limit was not applied");
+        assertTrue(index.search("Xavier", 5).isEmpty(), "Unrelated name should not match");
+        assertTrue(index.search("  '- ", 5).isEmpty(), "Query without letters should not match");
+    }
+
+    /**
+     * Test case 2: addPerson and updatePersonalDetails keep a registered index up to date
+     */
+    @Test
+    public void testListener_UpdatedByPerson() throws IOException {
+        PersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse("77EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false"));
+        NameSearchIndex index = NameSearchIndex.load(repository);
+        repository.addListener(index);
+        try {
+            Person added = new Person(repository);
+            added.personID = "35GH&*78JK";
+            added.firstName = "Mary";
+            added.lastName = "O'Neil";
+            added.address = "1 Swanston St|Melbourne|3000|Victoria|Australia";
+            added.birthdate = "01-02-1980";
+            assertTrue(added.addPerson());
+            assertEquals("35GH&*78JK", index.search("Mary Oneil", 5).get(0), "Added person was not indexed");
+
+            Person updated = new Person(repository);
+            assertTrue(updated.updatePersonalDetails("77EF!*56GH", "79EF!*56GH", "Robert", null, null, null));
+            assertEquals(Arrays.asList("79EF!*56GH"), index.search("Robert Wilson", 5));
+            assertTrue(index.search("Bob Wilson", 5).stream().noneMatch("77EF!*56GH"::equals),
+                    "Old ID should no longer be found");
+
+            index.remove("79EF!*56GH");
+            assertTrue(index.search("Robert Wilson", 5).isEmpty(), "Removed person should not be found");
+        } finally {
+            repository.removeListener(index);
+        }
+    }
+
+    /**
+     * Test case 3: Loading from the person file skips malformed rows
+     */
+    @Test
+    public void testLoad_FromFile() throws IOException {
+        Path file = tempDir.resolve("person.txt");
+        Files.write(file, Arrays.asList(
+            "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false",
+            "broken,row",
+            "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false"
+        ));
+        NameSearchIndex index = NameSearchIndex.load(new FilePersonRepository(file, tempDir.resolve("demerits.txt")));
+        assertEquals("45CD@#34EF", index.search("Jane", 5).get(0));
+        assertTrue(index.search("broken row", 5).isEmpty(), "Malformed row should not be indexed");
+    }
+
+    /**
+     * Test case 4: The best match is found among many similar names
+     */
+    @Test
+    public void testSearch_ManyPeople() {
+        NameSearchIndex index = new NameSearchIndex();
+        String[] first = {"John", "Jane", "Mary", "Peter", "Lisa", "David", "Emma", "James"};
+        String[] last = {"Smith", "Brown", "Wilson", "Taylor", "Nguyen", "Williams", "Jones", "Kelly"};
+        for (int i = 0; i < 20000; i++) {
+            index.add("ID" + i, first[i % first.length], last[(i / first.length) % last.length] + "-" + (char) ('a' + i % 26));
+        }
+        index.add("TARGET", "Maximilian", "Wolfeschlegel");
+        assertEquals("TARGET", index.search("Maximillian Wolfschlegel", 3).get(0));
+    }
+
+    /**
+     * Test case 5: Results stay right while many updates and removals compact the index
+     */
+    @Test
+    public void testUpdates_Compacted() {
+        NameSearchIndex index = new NameSearchIndex();
+        index.add("23AB$%12XY", "John", "Smith");
+        index.add("45CD@#34EF", "Jane", "Doe");
+        for (int i = 0; i < 5000; i++) {
+            index.add("67EF!*56GH", i % 2 == 0 ? "Bob" : "Robert", "Wilson");
+            index.add("48XY@#12AB", "Alice", "Brown");
+            index.remove("48XY@#12AB");
+        }
+
+        assertEquals(Collections.singletonList("67EF!*56GH"), index.search("Robert Wilson", 5), "Only the newest names should match");
+        assertTrue(index.search("Alice Brown", 5).isEmpty(), "A removed person should not match");
+        assertEquals(Collections.singletonList("23AB$%12XY"), index.search("John Smith", 1));
+        assertEquals(Collections.singletonList("45CD@#34EF"), index.search("Jane Doe", 1));
+        index.add("48XY@#12AB", "Alice", "Brown");
+        assertEquals("48XY@#12AB", index.search("Alice Brown", 5).get(0), "A person added after compaction was not found");
+    }
+}
@@ -0,0 +1,154 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Unit tests for the OffenseTimeSeries range queries.
+ */
+public class OffenseTimeSeriesTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test case 1: Range counts and points match a brute force sum, including days that grow the range both ways
+     */
+    @Test
+    public void testRangeQueries_MatchBruteForce() {
+        OffenseTimeSeries series = new OffenseTimeSeries(false);
+        Random random = new Random(42);
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        long[] counts = new long[20000];
+        long[] points = new long[20000];
+        for (int i = 0; i < 5000; i++) {
+            // spread offenses over about 55 years so the range has to grow on both sides of the first day
+            int day = (i == 0) ? 10000 : random.nextInt(counts.length);
+            int value = 1 + random.nextInt(6);
+            series.add(null, start.plusDays(day - 10000), value);
+            counts[day]++;
+            points[day] += value;
+        }
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(counts.length);
+            int to = from + random.nextInt(counts.length - from);
+            long expectedCount = 0;
+            long expectedPoints = 0;
+            for (int day = from; day <= to; day++) {
+                expectedCount += counts[day];
+                expectedPoints += points[day];
+            }
+            LocalDate fromDate = start.plusDays(from - 10000);
+            LocalDate toDate = start.plusDays(to - 10000);
+            assertEquals(expectedCount, series.count(fromDate, toDate), "Wrong offense count for range");
+            assertEquals(expectedPoints, series.points(fromDate, toDate), "Wrong point total for range");
+        }
+    }
+
+    /**
+     * Test case 2: Daily points and postcode totals
+     */
+    @Test
+    public void testDailyPointsAndPostcodes() {
+        OffenseTimeSeries series = new OffenseTimeSeries(true);
+        LocalDate day = LocalDate.of(2025, 3, 1);
+        series.add("3000", day, 3);
+        series.add("3000", day.plusDays(2), 2);
+        series.add("3001", day.plusDays(2), 6);
+        series.add(null, day.plusDays(1), 1);
+
+        assertArrayEquals(new long[]{3, 1, 8}, series.dailyPoints(day, day.plusDays(2)));
+        assertEquals(2, series.count("3000", day, day.plusDays(30)));
+        assertEquals(5, series.points("3000", day, day.plusDays(30)));
+        assertEquals(0, series.points("3999", day, day.plusDays(30)), "Unknown postcode should have no points");
+        Map<String, Long> expected = new TreeMap<>();
+        expected.put("3000", 5L);
+        expected.put("3001", 6L);
+        assertEquals(expected, series.pointsByPostcode(day, day.plusDays(2)));
+        assertEquals(0, series.count(day.plusDays(3), day.plusDays(2)), "Empty range should have no offenses");
+    }
+
+    /**
+     * Test case 3: Loading from the files splits offenses by the postcode in each person's address
+     */
+    @Test
+    public void testLoad_FromFiles() throws IOException {
+        Path personFile = tempDir.resolve("person.txt");
+        Path demeritsFile = tempDir.resolve("demerits.txt");
+        Files.write(personFile, Arrays.asList(
+            "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false",
+            "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false"
+        ));
+        Files.write(demeritsFile, Arrays.asList(
+            "23AB$%12XY, 01-01-2024, 6",
+            "45CD@#34EF, 15-06-2024, 2",
+            "23AB$%12XY, 31-02-2024, 3",
+            "broken row"
+        ));
+
+        OffenseTimeSeries series = OffenseTimeSeries.load(new FilePersonRepository(personFile, demeritsFile), true);
+        LocalDate from = LocalDate.of(2024, 1, 1);
+        LocalDate to = LocalDate.of(2024, 12, 31);
+        assertEquals(2, series.count(from, to), "Invalid rows should be skipped");
+        assertEquals(6, series.points("3000", from, to));
+        assertEquals(2, series.points("3001", from, to));
+    }
+
+    /**
+     * Test case 4: A registered series is updated by addDemeritPoints
+     */
+    @Test
+    public void testListener_UpdatedByAddDemeritPoints() {
+        OffenseTimeSeries series = new OffenseTimeSeries(true);
+        PersonRepository repository = new InMemoryPersonRepository();
+        repository.addListener(series);
+        try {
+            Person person = new Person(repository);
+            person.personID = "23AB$%12XY";
+            person.birthdate = "01-01-1990";
+            person.address = "123 Main St|Melbourne|3000|Victoria|AU";
+            assertEquals("Success", person.addDemeritPoints("01-01-2024", 4));
+            assertEquals("Failed", person.addDemeritPoints("01-01-2024", 9));
+
+            LocalDate day = LocalDate.of(2024, 1, 1);
+            assertEquals(1, series.count(day, day));
+            assertEquals(4, series.points("3000", day, day));
+        } finally {
+            repository.removeListener(series);
+        }
+    }
+
+    /**
+     * Test case 5: Offenses for a person whose Person only has an ID use the stored address, also after an update
+     */
+    @Test
+    public void testListener_PostcodeFromStoredAddress() throws IOException {
+        PersonRepository repository = new InMemoryPersonRepository();
+        repository.add(PersonRecord.parse("45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false"));
+        OffenseTimeSeries series = OffenseTimeSeries.load(repository, true);
+        repository.addListener(series);
+        try {
+            Person person = new Person(repository);
+            person.personID = "45CD@#34EF";
+            person.birthdate = "20-08-1990";
+            assertEquals("Success", person.addDemeritPoints("01-01-2024", 2));
+
+            Person mover = new Person(repository);
+            assertTrue(mover.updatePersonalDetails("45CD@#34EF", null, null, null, "9 New St|Melbourne|3008|Victoria|AU", null));
+            assertEquals("Success", person.addDemeritPoints("02-01-2024", 3));
+
+            LocalDate from = LocalDate.of(2024, 1, 1);
+            LocalDate to = LocalDate.of(2024, 1, 2);
+            assertEquals(2, series.points("3001", from, to), "Offense before the move should count for the old postcode");
+            assertEquals(3, series.points("3008", from, to), "Offense after the move should count for the new postcode");
+        } finally {
+            repository.removeListener(series);
+        }
+    }
+}
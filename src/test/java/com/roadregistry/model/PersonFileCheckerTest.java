@@ -0,0 +1,146 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Unit tests for the PersonFileChecker's check() and quarantine() methods.
+ */
+public class PersonFileCheckerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final List<String> VALID_ROWS = Arrays.asList(
+        "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false",
+        "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false",
+        "67EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false",
+        "48XY@#12AB,Alice,Brown,321 Elm St|Melbourne|3003|Victoria|AU,25-03-1985,8,true"
+    );
+
+    /**
+     * Test case 1: A file with only valid rows gives a clean report
+     */
+    @Test
+    public void testCheck_CleanFile() throws IOException {
+        Path file = tempDir.resolve("person.txt");
+        Files.write(file, VALID_ROWS);
+
+        PersonFileChecker.Report report = new PersonFileChecker().check(file);
+        assertEquals(4, report.rowCount, "Every row should be counted");
+        assertTrue(report.isClean(), "Valid rows were incorrectly reported");
+    }
+
+    /**
+     * Test case 2: Bad field counts, invalid fields and duplicate IDs are reported with their line numbers
+     */
+    @Test
+    public void testCheck_ReportsBadRows() throws IOException {
+        Path file = tempDir.resolve("person.txt");
+        List<String> rows = new ArrayList<>(VALID_ROWS);
+        rows.add(1, "29XY@#56AB,Tom,Black,1 Short St|Melbourne|3000|Victoria|AU,01-01-1990,0");
+        rows.add(3, "29CD$%@#EF,Tom2,Black,1 Short St|Melbourne|3000|Victoria|AU,01-01-1990,0,false");
+        rows.add("45CD@#34EF,Janet,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false");
+        rows.add("35AB$%12XY,Ann,Lee,9 High St|Sydney|2000|NSW|AU,01-02-1980,1,false");
+        Files.write(file, rows);
+
+        PersonFileChecker.Report report = new PersonFileChecker().check(file);
+        assertEquals(8, report.rowCount, "Every row should be counted");
+        assertEquals(4, report.badRows.size(), "Wrong number of bad rows reported");
+
+        assertEquals(PersonFileChecker.Problem.FIELD_COUNT, report.badRows.get(0).problem);
+        assertEquals(2, report.badRows.get(0).lineNumber);
+        assertEquals(PersonFileChecker.Problem.INVALID_FIRST_NAME, report.badRows.get(1).problem);
+        assertEquals(4, report.badRows.get(1).lineNumber);
+        assertEquals(PersonFileChecker.Problem.DUPLICATE_ID, report.badRows.get(2).problem);
+        assertEquals(7, report.badRows.get(2).lineNumber);
+        assertEquals(PersonFileChecker.Problem.INVALID_ADDRESS, report.badRows.get(3).problem);
+        assertEquals(8, report.badRows.get(3).lineNumber);
+
+        Path reportFile = tempDir.resolve("person.txt.report");
+        report.write(reportFile);
+        List<String> reportLines = Files.readAllLines(reportFile);
+        assertEquals(4, reportLines.size(), "Every bad row should be written to the report");
+        assertTrue(reportLines.get(2).startsWith("7,"), "Report line should start with the line number");
+    }
+
+    /**
+     * Test case 3: Quarantine moves bad rows out so updatePersonalDetails can work on the rest
+     */
+    @Test
+    public void testQuarantine_RemovesBadRows() throws IOException {
+        Path file = tempDir.resolve("person.txt");
+        List<String> rows = new ArrayList<>(VALID_ROWS);
+        rows.add(2, "not,a,person");
+        rows.add("23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false");
+        Files.write(file, rows);
+
+        PersonFileChecker checker = new PersonFileChecker();
+        PersonFileChecker.Report report = checker.check(file);
+        Path quarantineFile = tempDir.resolve("person.txt.quarantine");
+        checker.quarantine(file, report, quarantineFile);
+
+        assertEquals(VALID_ROWS, Files.readAllLines(file), "Only the good rows should be left in the file");
+        assertEquals(Arrays.asList("not,a,person", rows.get(rows.size() - 1)), Files.readAllLines(quarantineFile));
+        assertTrue(checker.check(file).isClean(), "File should be clean after quarantine");
+    }
+
+    /**
+     * Test case 4: A valid row is kept when an earlier row with the same ID failed validation
+     */
+    @Test
+    public void testQuarantine_KeepsValidRowAfterBadDuplicate() throws IOException {
+        Path file = tempDir.resolve("person.txt");
+        List<String> rows = new ArrayList<>(VALID_ROWS);
+        String badBirthdate = "57KL#@12MN,Sam,Green,5 Bay St|Melbourne|3000|Victoria|AU,1990-02-01,0,false";
+        String valid = "57KL#@12MN,Sam,Green,5 Bay St|Melbourne|3000|Victoria|AU,01-02-1990,0,false";
+        rows.add(badBirthdate);
+        rows.add(valid);
+        Files.write(file, rows);
+
+        PersonFileChecker checker = new PersonFileChecker();
+        PersonFileChecker.Report report = checker.check(file);
+        assertEquals(1, report.badRows.size(), "The valid row should not be reported as a duplicate");
+        assertEquals(PersonFileChecker.Problem.INVALID_BIRTHDATE, report.badRows.get(0).problem);
+
+        checker.quarantine(file, report, tempDir.resolve("person.txt.quarantine"));
+        assertEquals(valid, Files.readAllLines(file).get(VALID_ROWS.size()), "The only valid record was lost");
+    }
+
+    /**
+     * Test case 5: Ranges split on many threads give the same result as a single range
+     */
+    @Test
+    public void testCheck_LargeFileAcrossRanges() throws IOException {
+        Path file = tempDir.resolve("person.txt");
+        StringBuilder content = new StringBuilder();
+        int rowCount = 60000;
+        for (int i = 0; i < rowCount; i++) {
+            String row = VALID_ROWS.get(i % VALID_ROWS.size());
+            // make every id unique except for the last row, which repeats the first id
+            String id = (i == rowCount - 1) ? idFor(0) : idFor(i);
+            content.append(id).append(row.substring(10)).append('\n');
+        }
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+        assertTrue(Files.size(file) > (1 << 20) * 2, "Test file should span several ranges");
+
+        PersonFileChecker.Report report = new PersonFileChecker(4).check(file);
+        assertEquals(rowCount, report.rowCount);
+        assertEquals(1, report.badRows.size());
+        assertEquals(PersonFileChecker.Problem.DUPLICATE_ID, report.badRows.get(0).problem);
+        assertEquals(rowCount, report.badRows.get(0).lineNumber);
+    }
+
+    // builds a valid, unique person id from a number, e.g. 23$%0001AB
+    private static String idFor(int n) {
+        String digits = String.format("%04d", n % 10000);
+        char first = (char) ('A' + (n / 10000) % 26);
+        return "23$%" + digits + first + "B";
+    }
+}
@@ -0,0 +1,254 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Unit tests for the PersonReplica, following a ReplicatedPersonRepository in this JVM and in replica processes.
+ */
+public class PersonReplicaTest {
+
+    private static final String JOHN = "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false";
+    private static final String JANE = "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false";
+    private static final String MARY_JSON = "{\"personID\":\"35GH&*78JK\",\"firstName\":\"Mary\",\"lastName\":\"O'Neil\","
+            + "\"address\":\"1 Swanston St|Melbourne|3000|Victoria|Australia\",\"birthdate\":\"01-02-1980\"}";
+
+    @TempDir
+    Path tempDir;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private static InMemoryPersonRepository seeded() {
+        InMemoryPersonRepository storage = new InMemoryPersonRepository();
+        storage.add(PersonRecord.parse(JOHN));
+        storage.add(PersonRecord.parse(JANE));
+        return storage;
+    }
+
+    private static Person mary(PersonRepository repository) {
+        Person person = new Person(repository);
+        person.personID = "35GH&*78JK";
+        person.firstName = "Mary";
+        person.lastName = "O'Neil";
+        person.address = "1 Swanston St|Melbourne|3000|Victoria|Australia";
+        person.birthdate = "01-02-1980";
+        return person;
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, message);
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Test case 1: A replica starts from a snapshot and then applies each change made on the primary
+     */
+    @Test
+    public void testFollow_AppliesChanges() throws Exception {
+        try (ReplicatedPersonRepository primary = new ReplicatedPersonRepository(seeded(), 0);
+             PersonReplica replica = PersonReplica.connect("localhost", primary.getPort(), Duration.ofSeconds(1))) {
+            assertTrue(replica.awaitCaughtUp(Duration.ofSeconds(20)), "Replica did not catch up");
+            assertEquals("Jane", replica.find("45CD@#34EF").firstName);
+            NameSearchIndex names = NameSearchIndex.load(replica);
+            replica.addListener(names);
+
+            assertTrue(mary(primary).addPerson());
+            Person john = new Person(primary);
+            assertTrue(john.updatePersonalDetails("23AB$%12XY", null, "Johnny", null, null, null));
+            String date = LocalDate.now().minusDays(3).format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+            assertEquals("Success", john.addDemeritPoints(date, 4));
+            long offset = primary.offset();
+            assertEquals(3, offset);
+
+            await(() -> replica.appliedOffset() == offset, "Replica did not apply every entry");
+            assertEquals("Johnny", replica.find("23AB$%12XY").firstName);
+            assertEquals(Collections.singletonList(new DemeritRecord("23AB$%12XY", date, 4)), replica.demerits("23AB$%12XY"));
+            assertEquals(Collections.singletonList("35GH&*78JK"), names.search("Mary O'Neil", 1), "Listeners were not told");
+        }
+    }
+
+    /**
+     * Test case 2: A replica refuses writes, and refuses reads once it has lost the primary for longer than its bound
+     */
+    @Test
+    public void testLag_BoundedReads() throws Exception {
+        ReplicatedPersonRepository primary = new ReplicatedPersonRepository(seeded(), 0);
+        try (PersonReplica replica = PersonReplica.connect("localhost", primary.getPort(), Duration.ofMillis(300))) {
+            assertTrue(replica.awaitCaughtUp(Duration.ofSeconds(20)), "Replica did not catch up");
+            assertEquals(0, replica.lagEntries());
+            assertThrows(UnsupportedOperationException.class, () -> replica.add(PersonRecord.parse(JOHN)));
+            assertThrows(UnsupportedOperationException.class, () -> mary(replica).addPerson());
+
+            primary.close();
+            await(() -> replica.lagMillis() > 300, "Lag should grow without the primary");
+            assertThrows(IllegalStateException.class, () -> replica.find("45CD@#34EF"));
+        }
+    }
+
+    /**
+     * Test case 3: A promoted replica carries on from its applied offset in its own storage and the other replicas
+     * follow it, while a replica without storage cannot be promoted
+     */
+    @Test
+    public void testPromote_Failover() throws Exception {
+        ReplicatedPersonRepository primary = new ReplicatedPersonRepository(seeded(), 0);
+        FilePersonRepository storage = FilePersonRepository.inDirectory(tempDir);
+        try (PersonReplica first = PersonReplica.connect("localhost", primary.getPort(), Duration.ofSeconds(1), storage);
+             PersonReplica second = PersonReplica.connect("localhost", primary.getPort(), Duration.ofSeconds(1))) {
+            new Person(primary).updatePersonalDetails("45CD@#34EF", null, "Janet", null, null, null);
+            await(() -> first.appliedOffset() == 1 && second.appliedOffset() == 1, "Replicas did not apply the update");
+            primary.close();
+
+            assertThrows(IllegalStateException.class, () -> second.promote(0), "A replica without storage was promoted");
+            ReplicatedPersonRepository promoted = first.promote(0);
+            assertEquals(1, promoted.offset(), "The new primary should carry on from the applied offset");
+            second.follow("localhost", promoted.getPort());
+            assertTrue(mary(first).addPerson(), "A promoted replica should accept writes");
+            assertEquals(2, promoted.offset());
+
+            await(() -> second.appliedOffset() == 2, "The other replica did not follow the new primary");
+            assertEquals("Mary", second.find("35GH&*78JK").firstName);
+            assertEquals("Janet", second.find("45CD@#34EF").firstName);
+            assertThrows(IllegalStateException.class, () -> first.follow("localhost", promoted.getPort()));
+            assertEquals("Janet", storage.find("45CD@#34EF").firstName, "The copy should be written to the storage");
+            assertEquals("Mary", storage.find("35GH&*78JK").firstName, "Writes should go to the storage");
+        }
+    }
+
+    /**
+     * Test case 4: A replica that applied entries the promoted replica never had is sent a snapshot when it follows it,
+     * even though its applied offset matches the new primary's, and its listeners are rebuilt from the snapshot
+     */
+    @Test
+    public void testPromote_StaleReplicaResynced() throws Exception {
+        ReplicatedPersonRepository primary = new ReplicatedPersonRepository(seeded(), 0);
+        try (PersonReplica first = PersonReplica.connect("localhost", primary.getPort(), Duration.ofSeconds(1),
+                FilePersonRepository.inDirectory(tempDir));
+             PersonReplica second = PersonReplica.connect("localhost", primary.getPort(), Duration.ofSeconds(1))) {
+            await(() -> first.appliedOffset() == 0 && second.appliedOffset() == 0, "Replicas did not get a snapshot");
+            assertTrue(second.awaitCaughtUp(Duration.ofSeconds(20)), "Replica did not catch up");
+            NameSearchIndex names = NameSearchIndex.load(second);
+            OffenseTimeSeries offenses = OffenseTimeSeries.load(second, true);
+            second.addListener(names);
+            second.addListener(offenses);
+            ReplicatedPersonRepository promoted = first.promote(0);
+            assertEquals(0, promoted.offset());
+            assertNotEquals(primary.epoch(), promoted.epoch(), "A promoted replica should start a new epoch");
+
+            // entry 1 of the old log only reaches the second replica, entry 1 of the new log is a different change
+            new Person(primary).updatePersonalDetails("45CD@#34EF", null, "Janet", null, null, null);
+            await(() -> second.appliedOffset() == 1, "The second replica did not apply the update");
+            primary.close();
+            assertTrue(mary(first).addPerson());
+            LocalDate day = LocalDate.now().minusDays(3);
+            assertEquals("Success", mary(first).addDemeritPoints(day.format(DateTimeFormatter.ofPattern("dd-MM-yyyy")), 2));
+            assertEquals(2, promoted.offset());
+
+            second.follow("localhost", promoted.getPort());
+            await(() -> second.epoch() == promoted.epoch() && second.lagEntries() == 0 && second.lagMillis() < 1000,
+                    "The second replica did not resync with the new primary");
+            assertEquals("Mary", second.find("35GH&*78JK").firstName);
+            assertEquals("Jane", second.find("45CD@#34EF").firstName, "The old primary's unsent entry should be gone");
+            // Mary and her offense only reach the second replica in the snapshot
+            assertEquals(Collections.singletonList("35GH&*78JK"), names.search("Mary O'Neil", 1), "The index was not rebuilt");
+            assertEquals(2, offenses.points("3000", day, day), "The offense series was not rebuilt");
+        }
+    }
+
+    /**
+     * Test case 5: Replica processes serve reads over HTTP, report their lag and fail over to a promoted replica
+     */
+    @Test
+    public void testReplicaProcesses_Failover() throws Exception {
+        ReplicatedPersonRepository primary = new ReplicatedPersonRepository(seeded(), 0);
+        List<Process> processes = new ArrayList<>();
+        try {
+            int first = startReplica(primary.getPort(), processes, Files.createDirectory(tempDir.resolve("first")));
+            int second = startReplica(primary.getPort(), processes, Files.createDirectory(tempDir.resolve("second")));
+            assertEquals(200, get(first, "/persons/" + encode("45CD@#34EF")).statusCode());
+
+            assertTrue(mary(primary).addPerson());
+            await(() -> get(second, "/persons/" + encode("35GH&*78JK")).statusCode() == 200, "Added person did not reach the replica");
+            Map<String, Object> status = Json.parseObject(get(second, "/replication").body());
+            assertEquals("replica", status.get("role"));
+            assertEquals(1L, status.get("offset"));
+            assertTrue((Long) status.get("lagMillis") <= 1000, "Lag should be reported within the bound");
+            assertEquals(403, send(second, "POST", "/persons", MARY_JSON.replace("35GH&*78JK", "56IJ#@90KL")).statusCode());
+
+            primary.close();
+            Map<String, Object> promoted = Json.parseObject(send(first, "POST", "/replication/promote?port=0", "").body());
+            assertEquals("primary", promoted.get("role"));
+            assertEquals(1L, promoted.get("offset"));
+            assertEquals(200, send(second, "POST", "/replication/follow?host=localhost&port=" + promoted.get("replicationPort"), "").statusCode());
+
+            assertEquals(201, send(first, "POST", "/persons", MARY_JSON.replace("35GH&*78JK", "56IJ#@90KL")).statusCode());
+            await(() -> get(second, "/persons/" + encode("56IJ#@90KL")).statusCode() == 200, "The replica did not follow the new primary");
+            assertNotNull(FilePersonRepository.inDirectory(tempDir.resolve("first")).find("56IJ#@90KL"),
+                    "The promoted replica should keep its records in its directory");
+        } finally {
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+            primary.close();
+        }
+    }
+
+    // starts App as a replica in another JVM, promotable with the given directory, and returns its HTTP port
+    private int startReplica(int primaryPort, List<Process> processes, Path directory) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), App.class.getName(),
+                "0", "--replica-of", "localhost:" + primaryPort, directory.toString())
+                .directory(tempDir.toFile())
+                .redirectErrorStream(true)
+                .start();
+        processes.add(process);
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.startsWith("Road Registry replica listening on port ")) {
+                return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        throw new IOException("The replica process exited with " + process.waitFor());
+    }
+
+    private HttpResponse<String> get(int port, String path) {
+        try {
+            return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private HttpResponse<String> send(int port, String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
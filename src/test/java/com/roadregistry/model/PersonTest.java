@@ -2,42 +2,41 @@ package com.roadregistry.model;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 import java.io.*;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
  * Unit tests for the Person class's addPerson(), updatePersonalDetails(), and addDemeritPoints() methods.
  * Each test case checks different validation rules and business logic.
+ * Every test gets its own in-memory repository, so the tests do not share any files.
  */
 public class PersonTest {
 
-    private static final String PERSON_FILE = "person.txt";
-    private static final String DEMERITS_FILE = "demerits.txt";
+    // Format: ID,FirstName,LastName,Address,Birthday,DemeritPoints,IsSuspended
+    private static final List<String> TEST_DATA = Arrays.asList(
+        "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false",
+        "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false",
+        "67EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false",
+        "48XY@#12AB,Alice,Brown,321 Elm St|Melbourne|3003|Victoria|AU,25-03-1985,8,true"
+    );
+
+    private PersonRepository repository;
+
+    @TempDir
+    Path tempDir;
 
     @BeforeEach
     public void setUp() throws IOException {
-        // Create test data file for updatePersonalDetails tests
-        // Format: ID,FirstName,LastName,Address,Birthday,DemeritPoints,IsSuspended
-        List<String> testData = Arrays.asList(
-            "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false",
-            "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false", 
-            "67EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false",
-            "48XY@#12AB,Alice,Brown,321 Elm St|Melbourne|3003|Victoria|AU,25-03-1985,8,true"
-        );
-        Files.write(Paths.get(PERSON_FILE), testData);
-        
-        // Clean up demerits file if it exists (start fresh for each test)
-        // Files.deleteIfExists(Paths.get(DEMERITS_FILE));
-    }
-
-    @AfterEach 
-    public void tearDown() throws IOException {
-        
-        System.out.println("demerits.txt file preserved - check the contents to see logged demerit points!");
+        // Create test data for updatePersonalDetails tests
+        repository = new InMemoryPersonRepository();
+        for (String line : TEST_DATA) {
+            repository.add(PersonRecord.parse(line));
+        }
     }
 
     // ==================== addPerson() Test Cases ====================
@@ -48,8 +47,11 @@ public class PersonTest {
      */
     @Test
     public void testAddPerson_ValidInputs() {
+        // the seeded people use these IDs, and a taken ID is rejected, so the new people go into an empty registry
+        PersonRepository repository = new InMemoryPersonRepository();
+
         // Test Case 1_Test Data 1
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.personID = "23AB$%12XY";
         p1.firstName = "Michael";
         p1.lastName = "Johnson";
@@ -59,7 +61,7 @@ public class PersonTest {
         assertTrue(result1, "Valid person addition failed");
 
         // Test Case 1_Test Data 2
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.personID = "45CD@#34EF";
         p2.firstName = "Sarah";
         p2.lastName = "Williams";
@@ -69,7 +71,7 @@ public class PersonTest {
         assertTrue(result2, "Valid person addition failed");
 
         // Test Case 1_Test Data 3
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.personID = "67EF!*56GH";
         p3.firstName = "David";
         p3.lastName = "Brown";
@@ -86,7 +88,7 @@ public class PersonTest {
     @Test
     public void testAddPerson_InvalidPersonID() {
         // Test Case 2_Test Data 1 - ID too short
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.personID = "23AB$%12";
         p1.firstName = "John";
         p1.lastName = "Doe";
@@ -95,7 +97,7 @@ public class PersonTest {
         boolean result1 = p1.addPerson();
         assertFalse(result1, "Short ID was incorrectly accepted");
         // Test Case 2_Test Data 2 - ID without enough special characters
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.personID = "23ABCDEF12";
         p2.firstName = "Jane";
         p2.lastName = "Smith";
@@ -105,7 +107,7 @@ public class PersonTest {
         assertFalse(result2, "ID without special characters was incorrectly accepted");
 
         // Test Case 2_Test Data 3 - ID with lowercase letters at end
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.personID = "23AB$%34xy";
         p3.firstName = "Bob";
         p3.lastName = "Wilson";
@@ -122,7 +124,7 @@ public class PersonTest {
     @Test
     public void testAddPerson_InvalidAddress() {
         // Test Case 3_Test Data 1 - Address without pipe separators
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.personID = "23AB$%12XY";
         p1.firstName = "Alice";
         p1.lastName = "Green";
@@ -132,7 +134,7 @@ public class PersonTest {
         assertFalse(result1, "Address without pipe separators was incorrectly accepted");
 
         // Test Case 3_Test Data 2 - Address with wrong state
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.personID = "45CD@#34EF";
         p2.firstName = "Tom";
         p2.lastName = "Black";
@@ -142,7 +144,7 @@ public class PersonTest {
         assertFalse(result2, "Address with wrong state was incorrectly accepted");
 
         // Test Case 3_Test Data 3 - Address with missing parts
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.personID = "67EF!*56GH";
         p3.firstName = "Emma";
         p3.lastName = "White";
@@ -159,7 +161,7 @@ public class PersonTest {
     @Test
     public void testAddPerson_InvalidBirthdate() {
         // Test Case 4_Test Data 1 - Wrong date format
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.personID = "23AB$%12XY";
         p1.firstName = "James";
         p1.lastName = "Taylor";
@@ -169,7 +171,7 @@ public class PersonTest {
         assertFalse(result1, "Wrong date format was incorrectly accepted");
 
         // Test Case 4_Test Data 2 - Future date
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.personID = "45CD@#34EF";
         p2.firstName = "Lisa";
         p2.lastName = "Davis";
@@ -179,7 +181,7 @@ public class PersonTest {
         assertFalse(result2, "Future birthdate was incorrectly accepted");
 
         // Test Case 4_Test Data 3 - Date more than 100 years ago
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.personID = "67EF!*56GH";
         p3.firstName = "Peter";
         p3.lastName = "Miller";
@@ -196,7 +198,7 @@ public class PersonTest {
     @Test
     public void testAddPerson_InvalidName() {
         // Test Case 5_Test Data 1 - Name with digits
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.personID = "23AB$%12XY";
         p1.firstName = "John123";
         p1.lastName = "Smith";
@@ -206,7 +208,7 @@ public class PersonTest {
         assertFalse(result1, "Name with digits was incorrectly accepted");
 
         // Test Case 5_Test Data 2 - Empty name
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.personID = "45CD@#34EF";
         p2.firstName = "";
         p2.lastName = "Doe";
@@ -216,7 +218,7 @@ public class PersonTest {
         assertFalse(result2, "Empty name was incorrectly accepted");
 
         // Test Case 5_Test Data 3 - Name too long (over 50 characters)
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.personID = "67EF!*56GH";
         p3.firstName = "ThisIsAVeryLongFirstNameThatExceedsFiftyCharactersLimit";
         p3.lastName = "Wilson";
@@ -235,17 +237,17 @@ public class PersonTest {
     @Test
     public void testUpdatePersonalDetails_ValidInputs() {
         // Test Case 1_Test Data 1 - Update only names (NO ID change to avoid complications)
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         Boolean result1 = p1.updatePersonalDetails("23AB$%12XY", null, "Johnny", "Doe-Smith", null, null);
         assertTrue(result1, "Valid name update failed");
 
         // Test Case 1_Test Data 2 - Update only names for different person
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         Boolean result2 = p2.updatePersonalDetails("45CD@#34EF", null, "Janet", "Johnson", null, null);
         assertTrue(result2, "Valid name update failed");
 
         // Test Case 1_Test Data 3 - Update only birthdate (no other changes allowed)
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         Boolean result3 = p3.updatePersonalDetails("67EF!*56GH", null, null, null, null, "15-12-2010");
         assertTrue(result3, "Valid birthdate-only update failed");
     }
@@ -257,17 +259,17 @@ public class PersonTest {
     @Test
     public void testUpdatePersonalDetails_InvalidNewID() {
         // Test Case 2_Test Data 1 - ID without enough special characters in middle
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         Boolean result1 = p1.updatePersonalDetails("23AB$%12XY", "23ABCDEF12", null, null, null, null);
         assertFalse(result1, "Invalid ID format (no special chars) was incorrectly accepted");
 
         // Test Case 2_Test Data 2 - ID too short
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         Boolean result2 = p2.updatePersonalDetails("45CD@#34EF", "12AB$%34", null, null, null, null);
         assertFalse(result2, "Short ID was incorrectly accepted");
 
         // Test Case 2_Test Data 3 - ID with lowercase letters at end
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         Boolean result3 = p3.updatePersonalDetails("67EF!*56GH", "23AB$%34xy", null, null, null, null);
         assertFalse(result3, "ID with lowercase letters was incorrectly accepted");
     }
@@ -279,18 +281,18 @@ public class PersonTest {
     @Test
     public void testUpdatePersonalDetails_Under18AddressRestriction() {
         // Test Case 3_Test Data 1 - Under 18 trying to change address (should fail)
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         Boolean result1 = p1.updatePersonalDetails("67EF!*56GH", null, null, null,
                 "999 New St|Melbourne|3003|Victoria|AU", null);
         assertFalse(result1, "Under 18 person address change was incorrectly allowed");
 
         // Test Case 3_Test Data 2 - Under 18 changing name only (should succeed)
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         Boolean result2 = p2.updatePersonalDetails("67EF!*56GH", null, "Robert", null, null, null);
         assertTrue(result2, "Under 18 person name change failed");
 
         // Test Case 3_Test Data 3 - Adult changing address (should succeed)
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         Boolean result3 = p3.updatePersonalDetails("23AB$%12XY", null, null, null,
                 "888 Adult St|Melbourne|3005|Victoria|AU", null);
         assertTrue(result3, "Adult person address change failed");
@@ -303,17 +305,17 @@ public class PersonTest {
     @Test
     public void testUpdatePersonalDetails_BirthdateChangeRestriction() {
         // Test Case 4_Test Data 1 - Name change with birthdate change (should fail)
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         Boolean result1 = p1.updatePersonalDetails("23AB$%12XY", null, "Jonathan", null, null, "20-06-1990");
         assertFalse(result1, "Name change with birthdate change was incorrectly allowed");
 
         // Test Case 4_Test Data 2 - ID change with birthdate change (should fail)
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         Boolean result2 = p2.updatePersonalDetails("45CD@#34EF", "29XY@#56AB", null, null, null, "15-09-1985");
         assertFalse(result2, "ID change with birthdate change was incorrectly allowed");
 
         // Test Case 4_Test Data 3 - Birthdate-only change (should succeed)
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         Boolean result3 = p3.updatePersonalDetails("67EF!*56GH", null, null, null, null, "25-12-2010");
         assertTrue(result3, "Birthdate-only change failed");
     }
@@ -325,21 +327,70 @@ public class PersonTest {
     @Test
     public void testUpdatePersonalDetails_EvenDigitIDRestriction() {
         // Test Case 5_Test Data 1 - Even digit ID change (should fail)
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         Boolean result1 = p1.updatePersonalDetails("48XY@#12AB", "29CD$%@#EF", null, null, null, null);
         assertFalse(result1, "ID change for even-digit ID was incorrectly allowed");
 
         // Test Case 5_Test Data 2 - Even digit ID, other changes (should succeed)
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         Boolean result2 = p2.updatePersonalDetails("48XY@#12AB", null, "Michael", "Williams", null, null);
         assertTrue(result2, "Other details change for even-digit ID failed");
 
         // Test Case 5_Test Data 3 - Odd digit ID, just update name (avoid ID change complications)
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         Boolean result3 = p3.updatePersonalDetails("23AB$%12XY", null, "UpdatedName", null, null, null);
         assertTrue(result3, "Name change for odd-digit ID failed");
     }
 
+    /**
+     * Test case 6: Check a malformed row in the file does not block updates to other rows
+     * Test Case 6_Test Data 1, 2
+     */
+    @Test
+    public void testUpdatePersonalDetails_SkipsMalformedRows() throws IOException {
+        Path personFile = tempDir.resolve("person.txt");
+        Files.write(personFile, TEST_DATA);
+        Files.write(personFile, Arrays.asList("broken,row"), StandardOpenOption.APPEND);
+        repository = new FilePersonRepository(personFile, tempDir.resolve("demerits.txt"));
+
+        // Test Case 6_Test Data 1 - Update a valid row (should succeed)
+        Person p1 = new Person(repository);
+        Boolean result1 = p1.updatePersonalDetails("45CD@#34EF", null, "Janet", null, null, null);
+        assertTrue(result1, "Update was blocked by a malformed row");
+
+        // Test Case 6_Test Data 2 - Malformed row is kept unchanged
+        List<String> lines = Files.readAllLines(personFile);
+        assertEquals("broken,row", lines.get(lines.size() - 1), "Malformed row was not preserved");
+    }
+
+    /**
+     * Test case 7: Check an ID cannot be changed to one another person already has
+     * Test Case 7_Test Data 1, 2
+     */
+    @Test
+    public void testUpdatePersonalDetails_TakenID() throws IOException {
+        String tom = "35AB$%12XY,Tom,Lee,12 Elm St|Melbourne|3004|Victoria|AU,01-01-1980,0,false";
+
+        // Test Case 7_Test Data 1 - In memory, Jane's record is kept
+        repository.add(PersonRecord.parse(tom));
+        Person p1 = new Person(repository);
+        Boolean result1 = p1.updatePersonalDetails("35AB$%12XY", "45CD@#34EF", null, null, null, null);
+        assertFalse(result1, "ID change to a taken ID was incorrectly allowed");
+        assertEquals("Jane", repository.find("45CD@#34EF").firstName, "The person with the taken ID was overwritten");
+        assertEquals("Tom", repository.find("35AB$%12XY").firstName, "The rejected update changed the record");
+
+        // Test Case 7_Test Data 2 - In the file, no second row with the ID is written
+        Path personFile = tempDir.resolve("person.txt");
+        Files.write(personFile, TEST_DATA);
+        Files.write(personFile, Arrays.asList(tom), StandardOpenOption.APPEND);
+        repository = new FilePersonRepository(personFile, tempDir.resolve("demerits.txt"));
+        List<String> before = Files.readAllLines(personFile);
+        Person p2 = new Person(repository);
+        Boolean result2 = p2.updatePersonalDetails("35AB$%12XY", "45CD@#34EF", null, null, null, null);
+        assertFalse(result2, "ID change to a taken ID was incorrectly allowed");
+        assertEquals(before, Files.readAllLines(personFile), "The rejected update changed the file");
+    }
+
     // ==================== addDemeritPoints() Test Cases ====================
 
     /**
@@ -349,7 +400,7 @@ public class PersonTest {
     @Test
     public void testAddDemeritPoints_ValidInputs() {
         // Test Case 1_Test Data 1
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.birthdate = "01-01-2006"; // Person is under 21
         p1.personID = "23AB$%12XY";
         String result1 = p1.addDemeritPoints("01-01-2024", 3);
@@ -357,7 +408,7 @@ public class PersonTest {
         assertFalse(p1.isSuspended, "Person under 21 with 3 points was incorrectly suspended");
 
         // Test Case 1_Test Data 2
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.birthdate = "01-01-1990"; // Person is over 21
         p2.personID = "45CD@#34EF";
         String result2 = p2.addDemeritPoints("15-06-2024", 2);
@@ -365,7 +416,7 @@ public class PersonTest {
         assertFalse(p2.isSuspended, "Person over 21 with 2 points was incorrectly suspended");
 
         // Test Case 1_Test Data 3
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.birthdate = "10-12-2000"; // Person is over 21
         p3.personID = "67EF!*56GH";
         String result3 = p3.addDemeritPoints("20-03-2024", 6);
@@ -380,21 +431,21 @@ public class PersonTest {
     @Test
     public void testAddDemeritPoints_InvalidDateFormat() {
         // Test Case 2_Test Data 1
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.birthdate = "01-01-2000";
         p1.personID = "23AB$%12XY";
         String result1 = p1.addDemeritPoints("2024-01-01", 3); // Wrong format (YYYY-MM-DD)
         assertEquals("Failed", result1, "Invalid date format was incorrectly accepted");
 
         // Test Case 2_Test Data 2
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.birthdate = "15-05-1995";
         p2.personID = "45CD@#34EF";
         String result2 = p2.addDemeritPoints("01/01/2024", 2); // Wrong format (MM/DD/YYYY)
         assertEquals("Failed", result2, "Invalid date format was incorrectly accepted");
 
         // Test Case 2_Test Data 3
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.birthdate = "20-08-1988";
         p3.personID = "67EF!*56GH";
         String result3 = p3.addDemeritPoints("1-1-2024", 4); // Wrong format (single digits)
@@ -408,21 +459,21 @@ public class PersonTest {
     @Test
     public void testAddDemeritPoints_InvalidPointValue() {
         // Test Case 3_Test Data 1
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.birthdate = "01-01-2000";
         p1.personID = "23AB$%12XY";
         String result1 = p1.addDemeritPoints("01-01-2024", 0); // Invalid points (less than 1)
         assertEquals("Failed", result1, "Invalid point value was incorrectly accepted");
 
         // Test Case 3_Test Data 2
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.birthdate = "15-05-1995";
         p2.personID = "45CD@#34EF";
         String result2 = p2.addDemeritPoints("01-01-2024", 7); // Invalid points (greater than 6)
         assertEquals("Failed", result2, "Invalid point value was incorrectly accepted");
 
         // Test Case 3_Test Data 3
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.birthdate = "20-08-1988";
         p3.personID = "67EF!*56GH";
         String result3 = p3.addDemeritPoints("01-01-2024", -2); // Invalid points (negative)
@@ -436,7 +487,7 @@ public class PersonTest {
     @Test
     public void testAddDemeritPoints_SuspensionOver21() {
         // Test Case 4_Test Data 1
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.birthdate = "01-01-1990"; // Person is over 21
         p1.personID = "23AB$%12XY";
         p1.addDemeritPoints("01-01-2024", 6);
@@ -446,7 +497,7 @@ public class PersonTest {
         assertTrue(p1.isSuspended, "Person over 21 with 13 points was not suspended");
 
         // Test Case 4_Test Data 2
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.birthdate = "15-05-1985"; // Person is over 21
         p2.personID = "45CD@#34EF";
         p2.addDemeritPoints("01-01-2024", 5);
@@ -457,7 +508,7 @@ public class PersonTest {
         assertTrue(p2.isSuspended, "Person over 21 with 14 points was not suspended");
 
         // Test Case 4_Test Data 3
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.birthdate = "20-08-1980"; // Person is over 21
         p3.personID = "67EF!*56GH";
         p3.addDemeritPoints("01-01-2024", 6);
@@ -474,7 +525,7 @@ public class PersonTest {
     @Test
     public void testAddDemeritPoints_SuspensionUnder21() {
         // Test Case 5_Test Data 1
-        Person p1 = new Person();
+        Person p1 = new Person(repository);
         p1.birthdate = "01-01-2007"; // Person is under 21
         p1.personID = "23AB$%12XY";
         p1.addDemeritPoints("01-01-2024", 3);
@@ -484,7 +535,7 @@ public class PersonTest {
         assertTrue(p1.isSuspended, "Person under 21 with 7 points was not suspended");
 
         // Test Case 5_Test Data 2
-        Person p2 = new Person();
+        Person p2 = new Person(repository);
         p2.birthdate = "15-05-2008"; // Person is under 21
         p2.personID = "45CD@#34EF";
         p2.addDemeritPoints("01-01-2024", 4);
@@ -494,7 +545,7 @@ public class PersonTest {
         assertTrue(p2.isSuspended, "Person under 21 with 8 points was not suspended");
 
         // Test Case 5_Test Data 3
-        Person p3 = new Person();
+        Person p3 = new Person(repository);
         p3.birthdate = "10-12-2010"; // Person is under 21
         p3.personID = "67EF!*56GH";
         p3.addDemeritPoints("01-01-2024", 6);
@@ -502,4 +553,30 @@ public class PersonTest {
         assertEquals("Success", result3, "Valid demerit points addition failed");
         assertTrue(p3.isSuspended, "Person under 21 with 7 points was not suspended");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test case 6: Check offenses recorded earlier by another Person object are counted towards suspension
+     * Test Case 6_Test Data 1, 2
+     */
+    @Test
+    public void testAddDemeritPoints_CountsRecordedHistory() throws IOException {
+        java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("dd-MM-yyyy");
+        java.time.LocalDate today = java.time.LocalDate.now();
+
+        // Test Case 6_Test Data 1 - 12 points recorded through one Person object
+        Person p1 = new Person(repository);
+        p1.birthdate = "01-01-1990"; // Person is over 21
+        p1.personID = "89QR&*12ST";
+        assertEquals("Success", p1.addDemeritPoints(today.minusDays(1).format(formatter), 6));
+        assertEquals("Success", p1.addDemeritPoints(today.minusDays(2).format(formatter), 6));
+
+        // Test Case 6_Test Data 2 - 1 more point through a new object for the same person
+        Person p2 = new Person(repository);
+        p2.birthdate = "01-01-1990";
+        p2.personID = "89QR&*12ST";
+        String result2 = p2.addDemeritPoints(today.minusDays(3).format(formatter), 1);
+        assertEquals("Success", result2, "Valid demerit points addition failed");
+        assertTrue(p2.isSuspended, "Recorded offenses were not counted towards suspension");
+        assertTrue(p2.getDemeritPoints().size() >= 3, "Recorded offenses were not loaded");
+    }
+}
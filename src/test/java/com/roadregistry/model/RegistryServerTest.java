@@ -0,0 +1,209 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Unit tests for the RegistryServer, using a local HTTP client against a server on a free port.
+ */
+public class RegistryServerTest {
+
+    private PersonRepository repository;
+    private RegistryServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // Format: ID,FirstName,LastName,Address,Birthday,DemeritPoints,IsSuspended
+        List<String> testData = Arrays.asList(
+            "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false",
+            "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false",
+            "67EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false",
+            "48XY@#12AB,Alice,Brown,321 Elm St|Melbourne|3003|Victoria|AU,25-03-1985,8,true"
+        );
+        repository = new InMemoryPersonRepository();
+        for (String line : testData) {
+            repository.add(PersonRecord.parse(line));
+        }
+
+        server = new RegistryServer(0, repository);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+
+    /**
+     * Test case 1: Look up an existing and a missing person
+     */
+    @Test
+    public void testLookup() throws Exception {
+        HttpResponse<String> found = get("/persons/" + encode("45CD@#34EF"));
+        assertEquals(200, found.statusCode());
+        Map<String, Object> person = Json.parseObject(found.body());
+        assertEquals("Jane", person.get("firstName"));
+        assertEquals(5L, person.get("demeritPoints"));
+
+        HttpResponse<String> missing = get("/persons/" + encode("99ZZ$%99ZZ"));
+        assertEquals(404, missing.statusCode(), "Missing person should not be found");
+    }
+
+    /**
+     * Test case 2: Add a valid and an invalid person
+     */
+    @Test
+    public void testAddPerson() throws Exception {
+        HttpResponse<String> added = send("POST", "/persons", "{\"personID\":\"35GH&*78JK\",\"firstName\":\"Mary\","
+                + "\"lastName\":\"O'Neil\",\"address\":\"1 Swanston St|Melbourne|3000|Victoria|Australia\","
+                + "\"birthdate\":\"01-02-1980\"}");
+        assertEquals(201, added.statusCode(), "Valid person addition failed");
+        assertEquals(200, get("/persons/" + encode("35GH&*78JK")).statusCode(), "Added person was not found");
+
+        HttpResponse<String> invalid = send("POST", "/persons", "{\"personID\":\"35GH\",\"firstName\":\"Mary\"}");
+        assertEquals(400, invalid.statusCode(), "Invalid person was incorrectly accepted");
+
+        HttpResponse<String> malformed = send("POST", "/persons", "{\"personID\":");
+        assertEquals(400, malformed.statusCode(), "Malformed JSON was incorrectly accepted");
+    }
+
+    /**
+     * Test case 3: Update a person's details and apply the business rules
+     */
+    @Test
+    public void testUpdatePerson() throws Exception {
+        HttpResponse<String> updated = send("PUT", "/persons/" + encode("23AB$%12XY"), "{\"firstName\":\"Johnny\"}");
+        assertEquals(200, updated.statusCode(), "Valid name update failed");
+        assertEquals("Johnny", Json.parseObject(updated.body()).get("firstName"));
+
+        HttpResponse<String> rejected = send("PUT", "/persons/" + encode("67EF!*56GH"),
+                "{\"address\":\"999 New St|Melbourne|3003|Victoria|AU\"}");
+        assertEquals(400, rejected.statusCode(), "Under 18 person address change was incorrectly allowed");
+    }
+
+    /**
+     * Test case 4: Demerit points added over several requests accumulate and suspend the person
+     */
+    @Test
+    public void testAddDemeritPoints() throws Exception {
+        String path = "/persons/" + encode("45CD@#34EF") + "/demerits";
+        java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("dd-MM-yyyy");
+        int[] points = {6, 6, 1};
+        Map<String, Object> result = null;
+        for (int i = 0; i < points.length; i++) {
+            String date = java.time.LocalDate.now().minusDays(i + 1).format(formatter);
+            HttpResponse<String> response = send("POST", path, "{\"offenseDate\":\"" + date + "\",\"points\":" + points[i] + "}");
+            assertEquals(200, response.statusCode(), "Valid demerit points addition failed");
+            result = Json.parseObject(response.body());
+        }
+        assertEquals(true, result.get("isSuspended"), "Person over 21 with 13 points was not suspended");
+        assertEquals(400, send("POST", path, "{\"offenseDate\":\"2024-01-01\",\"points\":3}").statusCode());
+        String date = java.time.LocalDate.now().minusDays(5).format(formatter);
+        assertEquals(400, send("POST", path, "{\"offenseDate\":\"" + date + "\",\"points\":4294967297}").statusCode(),
+                "Points that do not fit an int should be rejected, not wrapped");
+    }
+
+    /**
+     * Test case 5: Bulk lookups stream one JSON object per line
+     */
+    @Test
+    public void testBulkLookup() throws Exception {
+        HttpResponse<String> some = get("/persons?ids=" + encode("23AB$%12XY,48XY@#12AB,99ZZ$%99ZZ"));
+        assertEquals(200, some.statusCode());
+        // the in-memory repository streams people in no particular order
+        Set<Object> ids = some.body().lines().map(line -> Json.parseObject(line).get("personID")).collect(Collectors.toSet());
+        assertEquals(new HashSet<>(Arrays.asList("23AB$%12XY", "48XY@#12AB")), ids);
+        assertEquals(2, some.body().lines().count(), "Each listed person should be streamed once");
+
+        HttpResponse<String> all = get("/persons");
+        assertEquals(4, all.body().lines().count(), "Every person should be streamed");
+    }
+
+    /**
+     * Test case 6: Offense totals for a date range and postcode include newly added demerit points
+     */
+    @Test
+    public void testOffenseTotals() throws Exception {
+        String date = java.time.LocalDate.now().minusDays(10)
+                .format(java.time.format.DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+        String query = "/offenses?from=" + date + "&to=" + date + "&postcode=3000";
+        Map<String, Object> before = Json.parseObject(get(query).body());
+
+        send("POST", "/persons/" + encode("23AB$%12XY") + "/demerits", "{\"offenseDate\":\"" + date + "\",\"points\":4}");
+        Map<String, Object> after = Json.parseObject(get(query).body());
+        assertEquals((Long) before.get("count") + 1, after.get("count"), "Offense was not counted");
+        assertEquals((Long) before.get("points") + 4, after.get("points"), "Offense points were not counted");
+
+        assertEquals(400, get("/offenses?from=2024-01-01&to=" + date).statusCode(), "Invalid date was incorrectly accepted");
+    }
+
+    /**
+     * Test case 7: Name search finds misspelled names, including people added after the server started
+     */
+    @Test
+    public void testNameSearch() throws Exception {
+        HttpResponse<String> response = get("/search?name=" + encode("Jnae Doe"));
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("{\"personIDs\":[\"45CD@#34EF\""), "Misspelled name was not found first");
+
+        send("POST", "/persons", "{\"personID\":\"35GH&*78JK\",\"firstName\":\"Zoë\",\"lastName\":\"Papadopoulos\","
+                + "\"address\":\"1 Swanston St|Melbourne|3000|Victoria|Australia\",\"birthdate\":\"01-02-1980\"}");
+        response = get("/search?name=" + encode("zoe papadopolous") + "&limit=1");
+        assertEquals("{\"personIDs\":[\"35GH&*78JK\"]}", response.body(), "Added person was not found");
+    }
+
+    /**
+     * Test case 8: asOf lookups are answered by a versioned repository and rejected without one
+     */
+    @Test
+    public void testLookupAsOf() throws Exception {
+        String today = java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+        assertEquals(400, get("/persons/" + encode("45CD@#34EF") + "?asOf=" + today).statusCode(),
+                "asOf should need a versioned repository");
+
+        server.stop();
+        server = new RegistryServer(0, new VersionedPersonRepository(repository, java.time.Duration.ofDays(1)));
+        server.start();
+        send("PUT", "/persons/" + encode("45CD@#34EF"), "{\"firstName\":\"Janet\"}");
+
+        HttpResponse<String> asOfToday = get("/persons/" + encode("45CD@#34EF") + "?asOf=" + today);
+        assertEquals(200, asOfToday.statusCode());
+        assertEquals("Janet", Json.parseObject(asOfToday.body()).get("firstName"));
+        assertEquals(400, get("/persons/" + encode("45CD@#34EF") + "?asOf=01-01-2000").statusCode(),
+                "Dates before the kept history should be rejected");
+        assertEquals(4, get("/persons").body().lines().count(), "Every person should be streamed from a snapshot");
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri(path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getPort() + path);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,133 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Unit tests for the ReplicatedPersonRepository's mutation log and replication protocol.
+ */
+public class ReplicatedPersonRepositoryTest {
+
+    private static final String JOHN = "23AB$%12XY,John,Smith,123 Main St|Melbourne|3000|Victoria|AU,15-05-1995,0,false";
+    private static final String JANE = "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false";
+    private static final String MARY = "35GH&*78JK,Mary,O'Neil,1 Swanston St|Melbourne|3000|Victoria|AU,01-02-1980,0,false";
+
+    /**
+     * Test case 1: Fields with tabs, line breaks and backslashes survive a message
+     */
+    @Test
+    public void testMessage_Escaping() {
+        String[] fields = {"ENTRY", "a\tb", "line\nbreak\r", "back\\slash", ""};
+        String message = ReplicatedPersonRepository.message(fields);
+        assertFalse(message.contains("\n"), "A message should be one line");
+        assertArrayEquals(fields, ReplicatedPersonRepository.fields(message));
+    }
+
+    /**
+     * Test case 2: A replica gets the entries after its offset in order, and a new replica or one that followed
+     * another log gets a snapshot first
+     */
+    @Test
+    public void testStream_EntriesAndSnapshot() throws Exception {
+        InMemoryPersonRepository storage = new InMemoryPersonRepository();
+        storage.add(PersonRecord.parse(JOHN)); // stored before the log started, only a snapshot has it
+        try (ReplicatedPersonRepository primary = new ReplicatedPersonRepository(storage, 7, 0, 0)) {
+            primary.add(PersonRecord.parse(JANE));
+            PersonRecord renamed = PersonRecord.parse(JANE.replace("Jane", "Janet"));
+            assertTrue(primary.replace("45CD@#34EF", renamed));
+            assertFalse(primary.replace("99ZZ$%99ZZ", renamed), "A failed replace should not be logged");
+            primary.addDemerits(Arrays.asList(new DemeritRecord("45CD@#34EF", "01-01-2024", 3),
+                    new DemeritRecord("23AB$%12XY", "02-01-2024", 2)));
+            assertEquals(4, primary.offset());
+            assertEquals("Janet", storage.find("45CD@#34EF").firstName, "Writes should reach the storage repository");
+
+            List<String> fromOne = follow(primary.getPort(), 7, 1, 4);
+            assertEquals("ENTRY\t7\t2\tREPLACE\t45CD@#34EF\t" + renamed.toLine(), fromOne.get(0));
+            assertEquals("ENTRY\t7\t3\tDEMERIT\t45CD@#34EF, 01-01-2024, 3", fromOne.get(1));
+            assertEquals("ENTRY\t7\t4\tDEMERIT\t23AB$%12XY, 02-01-2024, 2", fromOne.get(2));
+            assertEquals("HEARTBEAT\t7\t4", fromOne.get(3));
+
+            List<String> fresh = follow(primary.getPort(), 0, -1, 8);
+            assertEquals("SNAPSHOT\t7\t4", fresh.get(0));
+            assertEquals(new HashSet<>(Arrays.asList("PERSON\t" + PersonRecord.parse(JOHN).toLine(), "PERSON\t" + renamed.toLine(),
+                    "DEMERIT\t45CD@#34EF, 01-01-2024, 3", "DEMERIT\t23AB$%12XY, 02-01-2024, 2")), new HashSet<>(fresh.subList(1, 5)));
+            assertEquals(Arrays.asList("END", "HEARTBEAT\t7\t4"), fresh.subList(5, 7));
+            assertEquals("HEARTBEAT\t7\t4", fresh.get(7), "An idle primary should keep sending heartbeats");
+
+            assertEquals("SNAPSHOT\t7\t4", follow(primary.getPort(), 6, 4, 1).get(0),
+                    "Offset 4 of another log is not offset 4 of this one");
+        }
+    }
+
+    /**
+     * Test case 3: Writes carry on while a snapshot is streamed, and offenses added meanwhile are trimmed from it
+     */
+    @Test
+    public void testSnapshot_DoesNotBlockWriters() throws Exception {
+        CountDownLatch streaming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryPersonRepository storage = new InMemoryPersonRepository() {
+            @Override
+            public void forEachDemerit(Consumer<DemeritRecord> action) {
+                streaming.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.forEachDemerit(action);
+            }
+        };
+        storage.add(PersonRecord.parse(JOHN));
+        try (ReplicatedPersonRepository primary = new ReplicatedPersonRepository(storage, 7, 0, 0)) {
+            primary.add(PersonRecord.parse(JANE));
+            CompletableFuture<List<String>> fresh = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return follow(primary.getPort(), 0, -1, 10);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            assertTrue(streaming.await(5, TimeUnit.SECONDS), "The snapshot was not streamed");
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                primary.add(PersonRecord.parse(MARY));
+                primary.addDemerit(new DemeritRecord("23AB$%12XY", "02-01-2024", 2));
+            }, "Writes should not wait for a snapshot being streamed");
+            release.countDown();
+
+            List<String> messages = fresh.get(10, TimeUnit.SECONDS);
+            assertEquals("SNAPSHOT\t7\t1", messages.get(0));
+            assertEquals(new HashSet<>(Arrays.asList("PERSON\t" + PersonRecord.parse(JOHN).toLine(),
+                    "PERSON\t" + PersonRecord.parse(JANE).toLine())), new HashSet<>(messages.subList(1, 3)),
+                    "The snapshot should have the people as of its offset");
+            assertEquals(Arrays.asList("DEMERIT\t23AB$%12XY, 02-01-2024, 2", "TRIM\t23AB$%12XY\t0", "END", "HEARTBEAT\t7\t1",
+                    "ENTRY\t7\t2\tADD\t" + PersonRecord.parse(MARY).toLine(), "ENTRY\t7\t3\tDEMERIT\t23AB$%12XY, 02-01-2024, 2",
+                    "HEARTBEAT\t7\t3"), messages.subList(3, 10));
+        }
+    }
+
+    // connects as a replica at the given epoch and offset and reads the first messages
+    private static List<String> follow(int port, long epoch, long offset, int count) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write("FOLLOW\t" + epoch + "\t" + offset + "\n");
+            writer.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> messages = new ArrayList<>();
+            while (messages.size() < count) {
+                messages.add(reader.readLine());
+            }
+            return messages;
+        }
+    }
+}
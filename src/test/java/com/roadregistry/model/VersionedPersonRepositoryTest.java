@@ -0,0 +1,126 @@
+package com.roadregistry.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit tests for the VersionedPersonRepository's snapshots, garbage collection and findAsOf().
+ */
+public class VersionedPersonRepositoryTest {
+
+    private static final String BOB = "77EF!*56GH,Bob,Wilson,789 Pine Rd|Melbourne|3002|Victoria|AU,10-12-2010,2,false";
+    private static final String JANE = "45CD@#34EF,Jane,Doe,456 Oak Ave|Melbourne|3001|Victoria|AU,20-08-1990,5,false";
+
+    private static VersionedPersonRepository repository(Duration retention) throws IOException {
+        InMemoryPersonRepository storage = new InMemoryPersonRepository();
+        storage.add(PersonRecord.parse(BOB));
+        storage.add(PersonRecord.parse(JANE));
+        return new VersionedPersonRepository(storage, retention);
+    }
+
+    /**
+     * Test case 1: A snapshot keeps seeing the registry as it was, including across an ID change
+     */
+    @Test
+    public void testSnapshot_Isolated() throws IOException {
+        VersionedPersonRepository repository = repository(Duration.ofDays(1));
+        try (VersionedPersonRepository.Snapshot snapshot = repository.snapshot()) {
+            Person person = new Person(repository);
+            assertTrue(person.updatePersonalDetails("77EF!*56GH", "79EF!*56GH", "Robert", null, null, null));
+
+            assertEquals("Bob", snapshot.find("77EF!*56GH").firstName, "Snapshot should see the old details");
+            assertNull(snapshot.find("79EF!*56GH"), "Snapshot should not see the new ID");
+            List<String> ids = new ArrayList<>();
+            snapshot.forEach(record -> ids.add(record.personID));
+            Collections.sort(ids);
+            assertEquals(Arrays.asList("45CD@#34EF", "77EF!*56GH"), ids);
+
+            assertNull(repository.find("77EF!*56GH"), "Old ID should be gone for new readers");
+            assertEquals("Robert", repository.find("79EF!*56GH").firstName);
+            assertEquals("Robert", repository.getStorage().find("79EF!*56GH").firstName, "Update was not stored");
+        }
+    }
+
+    /**
+     * Test case 2: Old versions are only collected once no open snapshot can see them
+     */
+    @Test
+    public void testCollectGarbage_WaitsForSnapshots() throws IOException {
+        VersionedPersonRepository repository = repository(Duration.ZERO);
+        VersionedPersonRepository.Snapshot snapshot = repository.snapshot();
+        repository.replace("45CD@#34EF", PersonRecord.parse(JANE.replace("Jane", "Janet")));
+        repository.replace("45CD@#34EF", PersonRecord.parse(JANE.replace("Jane", "Janine")));
+
+        repository.collectGarbage();
+        assertEquals("Jane", snapshot.find("45CD@#34EF").firstName, "Version seen by an open snapshot was collected");
+        snapshot.close();
+        assertEquals(2, repository.collectGarbage(), "Both replaced versions should be collected");
+        assertEquals("Janine", repository.find("45CD@#34EF").firstName);
+    }
+
+    /**
+     * Test case 3: Details as of an earlier time are found while they are within the retention period
+     */
+    @Test
+    public void testFindAsOf() throws Exception {
+        VersionedPersonRepository repository = repository(Duration.ofDays(1));
+        Thread.sleep(5);
+        Instant beforeUpdate = Instant.now();
+        Thread.sleep(5);
+        repository.replace("45CD@#34EF", PersonRecord.parse(JANE.replace("Jane", "Janet")));
+
+        assertEquals("Jane", repository.findAsOf("45CD@#34EF", beforeUpdate).firstName);
+        assertEquals("Janet", repository.findAsOf("45CD@#34EF", Instant.now()).firstName);
+        assertNull(repository.findAsOf("99ZZ$%99ZZ", Instant.now()), "Unknown person should not be found");
+        assertThrows(IllegalArgumentException.class, () -> repository.findAsOf("45CD@#34EF", beforeUpdate.minusSeconds(60)),
+                "Times before the history started should be rejected");
+    }
+
+    /**
+     * Test case 4: A reader going through a snapshot while another thread updates never sees a mixed registry
+     */
+    @Test
+    public void testSnapshot_ConsistentUnderWrites() throws Exception {
+        VersionedPersonRepository repository = repository(Duration.ZERO);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; !done.get(); i++) {
+                    // Jane and then Bob get the same new last name
+                    String name = "Name" + (char) ('a' + i % 26);
+                    repository.replace("45CD@#34EF", PersonRecord.parse(JANE.replace("Doe", name)));
+                    repository.replace("77EF!*56GH", PersonRecord.parse(BOB.replace("Wilson", name)));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        repository.replace("45CD@#34EF", PersonRecord.parse(JANE.replace("Doe", "Wilson")));
+        writer.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                try (VersionedPersonRepository.Snapshot snapshot = repository.snapshot()) {
+                    Map<String, String> lastNames = new HashMap<>();
+                    snapshot.forEach(record -> lastNames.put(record.personID, record.lastName));
+                    String jane = snapshot.find("45CD@#34EF").lastName;
+                    String bob = snapshot.find("77EF!*56GH").lastName;
+                    assertEquals(jane, lastNames.get("45CD@#34EF"), "Snapshot changed between reads");
+                    assertEquals(bob, lastNames.get("77EF!*56GH"), "Snapshot changed between reads");
+                    // Jane is updated in even commits and Bob in odd ones, so after an odd commit they match
+                    if (snapshot.version() % 2 == 1) {
+                        assertEquals(jane, bob, "Snapshot saw half of a pair of updates");
+                    }
+                }
+                repository.collectGarbage();
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+}